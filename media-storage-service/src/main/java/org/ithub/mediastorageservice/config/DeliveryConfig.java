@@ -0,0 +1,57 @@
+package org.ithub.mediastorageservice.config;
+
+import lombok.Getter;
+import org.ithub.mediastorageservice.enums.DeliveryMode;
+import org.ithub.mediastorageservice.enums.MediaType;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+@Getter
+@Setter
+@Configuration
+@ConfigurationProperties(prefix = "media.delivery")
+public class DeliveryConfig implements WebMvcConfigurer {
+    // Потоки, которые переписывают содержимое из MinIO в ответ клиенту
+    private int streamingThreads = 64;
+    private int streamingQueueCapacity = 1000;
+    // Таймаут асинхронной отдачи (большие файлы на медленных клиентах)
+    private Duration streamingTimeout = Duration.ofHours(1);
+    // Режим отдачи по умолчанию и переопределения по типу медиа
+    private DeliveryMode mode = DeliveryMode.PROXY;
+    private Map<MediaType, DeliveryMode> modes = new EnumMap<>(MediaType.class);
+    // В режиме REDIRECT объекты меньше порога все равно отдаются через сервис (без лишнего round-trip)
+    private DataSize redirectThreshold = DataSize.ofMegabytes(1);
+
+    /**
+     * Режим отдачи для типа медиа
+     */
+    public DeliveryMode modeFor(MediaType mediaType) {
+        return modes.getOrDefault(mediaType, mode);
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor mediaStreamingExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(streamingThreads);
+        executor.setMaxPoolSize(streamingThreads);
+        executor.setQueueCapacity(streamingQueueCapacity);
+        executor.setThreadNamePrefix("media-stream-");
+        return executor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(mediaStreamingExecutor());
+        configurer.setDefaultTimeout(streamingTimeout.toMillis());
+    }
+}
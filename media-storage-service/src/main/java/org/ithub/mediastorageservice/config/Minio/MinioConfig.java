@@ -1,5 +1,6 @@
 package org.ithub.mediastorageservice.config.Minio;
 
+import io.minio.MinioAsyncClient;
 import io.minio.MinioClient;
 import lombok.Getter;
 import lombok.Setter;
@@ -24,4 +25,12 @@ public class MinioConfig {
                 .credentials(accessKey, secretKey)
                 .build();
     }
+
+    @Bean
+    public MultipartMinioClient multipartMinioClient() {
+        return new MultipartMinioClient(MinioAsyncClient.builder()
+                .endpoint(endpoint)
+                .credentials(accessKey, secretKey)
+                .build());
+    }
 }
\ No newline at end of file
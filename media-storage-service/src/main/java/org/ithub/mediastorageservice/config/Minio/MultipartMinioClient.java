@@ -0,0 +1,46 @@
+package org.ithub.mediastorageservice.config.Minio;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import io.minio.MinioAsyncClient;
+import io.minio.messages.Part;
+
+/**
+ * Клиент MinIO с доступом к низкоуровневому multipart API (в SDK эти методы protected):
+ * части загружаются независимо и параллельно, а не одним потоком putObject
+ */
+public class MultipartMinioClient extends MinioAsyncClient {
+    public MultipartMinioClient(MinioAsyncClient client) {
+        super(client);
+    }
+
+    public String createUpload(String bucket, String object, String contentType) throws Exception {
+        return createMultipartUploadAsync(bucket, null, object, contentTypeHeader(contentType), null)
+                .get()
+                .result()
+                .uploadId();
+    }
+
+    public Part uploadPart(String bucket, String object, String uploadId, int partNumber, byte[] data) throws Exception {
+        String etag = uploadPartAsync(bucket, null, object, data, data.length, uploadId, partNumber, null, null)
+                .get()
+                .etag();
+        return new Part(partNumber, etag);
+    }
+
+    public void completeUpload(String bucket, String object, String uploadId, Part[] parts) throws Exception {
+        completeMultipartUploadAsync(bucket, null, object, uploadId, parts, null, null).get();
+    }
+
+    public void abortUpload(String bucket, String object, String uploadId) throws Exception {
+        abortMultipartUploadAsync(bucket, null, object, uploadId, null, null).get();
+    }
+
+    private static Multimap<String, String> contentTypeHeader(String contentType) {
+        Multimap<String, String> headers = HashMultimap.create();
+        if (contentType != null) {
+            headers.put("Content-Type", contentType);
+        }
+        return headers;
+    }
+}
@@ -0,0 +1,31 @@
+package org.ithub.mediastorageservice.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Configuration
+@ConfigurationProperties(prefix = "media.object-cache")
+public class ObjectCacheConfig {
+    private boolean enabled = true;
+    // Каталог дискового кэша. Записи лежат в подкаталоге с файлом-маркером, и при старте очищается только он
+    // (метаданные записей хранятся только в памяти)
+    private String directory = System.getProperty("java.io.tmpdir") + "/media-object-cache";
+    // Общий размер дискового уровня
+    private DataSize maxDiskSize = DataSize.ofGigabytes(2);
+    // Объекты крупнее не кэшируются (варианты обычно намного меньше)
+    private DataSize maxEntrySize = DataSize.ofMegabytes(8);
+    // Объекты не больше этого размера (миниатюры) держатся в памяти; 0 - уровень в памяти выключен
+    private DataSize heapMaxEntrySize = DataSize.ofKilobytes(32);
+    // Общий размер уровня в памяти
+    private DataSize maxHeapSize = DataSize.ofMegabytes(64);
+    // Через сколько запись сверяется с хранилищем по ETag: инвалидация действует только внутри экземпляра,
+    // а объект может быть перезаписан через другой
+    private Duration revalidateAfter = Duration.ofMinutes(1);
+}
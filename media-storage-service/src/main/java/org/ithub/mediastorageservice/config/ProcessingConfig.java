@@ -0,0 +1,68 @@
+package org.ithub.mediastorageservice.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.ithub.mediastorageservice.enums.ResampleMode;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Getter
+@Setter
+@Configuration
+@ConfigurationProperties(prefix = "media.processing")
+public class ProcessingConfig {
+    // Количество параллельных воркеров генерации вариантов
+    private int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    // Максимальная глубина очереди задач, сверх нее загрузки отклоняются
+    private int queueCapacity = 100;
+    // Повторы при временных сбоях MinIO
+    private int maxAttempts = 3;
+    private long retryBackoffMs = 500;
+    // Потоки кодирования и загрузки вариантов одного изображения
+    private int encodingParallelism = Runtime.getRuntime().availableProcessors();
+    // Сколько памяти могут одновременно занимать декодированные оригиналы вместе с рабочими копиями
+    // уменьшения (см. SubsampledImageDecoder): по умолчанию - четверть кучи
+    private DataSize decodeMemoryBudget = DataSize.ofBytes(Runtime.getRuntime().maxMemory() / 4);
+    // Во сколько раз декодированное изображение должно быть больше наибольшего варианта (запас для сглаживания)
+    private int decodeOversample = 2;
+    // Сколько задача ждет свободного бюджета, прежде чем отступить и повторить позже
+    private Duration decodeBudgetTimeout = Duration.ofSeconds(60);
+    // Алгоритм уменьшения вариантов
+    private ResampleMode resampleMode = ResampleMode.PROGRESSIVE;
+    // Задача в PROCESSING дольше этого срока считается брошенной (перезапуск или падение экземпляра)
+    private Duration jobTimeout = Duration.ofMinutes(30);
+    // Пауза между проверками брошенных задач (используется через media.processing.recovery-interval)
+    private Duration recoveryInterval = Duration.ofMinutes(5);
+
+    @Bean
+    public ThreadPoolTaskExecutor variantProcessingExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(parallelism);
+        executor.setMaxPoolSize(parallelism);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("variant-worker-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor variantEncodingExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(encodingParallelism);
+        executor.setMaxPoolSize(encodingParallelism);
+        executor.setQueueCapacity(encodingParallelism * 4);
+        executor.setThreadNamePrefix("variant-encoder-");
+        // При переполнении кодируем в потоке воркера, задачи не теряются
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+}
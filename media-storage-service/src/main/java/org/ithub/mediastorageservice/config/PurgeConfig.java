@@ -0,0 +1,23 @@
+package org.ithub.mediastorageservice.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Configuration
+@EnableScheduling
+@ConfigurationProperties(prefix = "media.purge")
+public class PurgeConfig {
+    // Пауза между проходами очистки (используется в @Scheduled через media.purge.interval)
+    private Duration interval = Duration.ofSeconds(30);
+    // Сколько помеченных файлов обрабатывается за одну порцию
+    private int batchSize = 500;
+    // Сколько помеченный файл ждет очистки: даем завершиться уже начатым скачиваниям
+    private Duration grace = Duration.ofMinutes(1);
+}
@@ -0,0 +1,31 @@
+package org.ithub.mediastorageservice.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Configuration
+@ConfigurationProperties(prefix = "media.reconcile")
+public class ReconcileConfig {
+    // Расписание автоматической сверки (используется в @Scheduled через media.reconcile.cron, "-" - выключено)
+    private String cron = "-";
+    // Исправлять ли расхождения при запуске по расписанию
+    private boolean repair = false;
+    // Объекты моложе этого возраста не считаются "сиротами": загрузка может быть еще не сохранена в БД
+    private Duration orphanGrace = Duration.ofHours(24);
+    // Строки моложе этого возраста не считаются потерявшими объект: файл мог появиться после чтения листинга
+    private Duration missingGrace = Duration.ofHours(1);
+    // Ограничение скорости обхода листинга (объектов в секунду, 0 - без ограничения)
+    private int maxObjectsPerSecond = 1000;
+    // Размер порции ключей из БД
+    private int dbChunkSize = 1000;
+    // Префикс, сверенный недавнее этого срока, повторно не сканируется (продолжение прерванного прохода)
+    private Duration rescanAfter = Duration.ofHours(24);
+    // Сколько примеров ключей сохраняется в отчете
+    private int sampleSize = 20;
+}
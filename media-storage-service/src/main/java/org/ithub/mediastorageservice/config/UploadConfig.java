@@ -0,0 +1,51 @@
+package org.ithub.mediastorageservice.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Getter
+@Setter
+@Configuration
+@ConfigurationProperties(prefix = "media.upload")
+public class UploadConfig {
+    // Файлы от этого размера загружаются в MinIO частями через multipart API
+    private DataSize multipartThreshold = DataSize.ofMegabytes(64);
+    // Размер части (не меньше 5 МБ - минимум S3 для всех частей, кроме последней)
+    private DataSize partSize = DataSize.ofMegabytes(16);
+    // Частей одной загрузки в памяти одновременно: память на загрузку <= partSize * maxInFlightParts
+    private int maxInFlightParts = 4;
+    // Общие потоки отправки частей для всех загрузок
+    private int partUploadThreads = 16;
+    // Время жизни сессии возобновляемой загрузки с момента последней принятой части
+    private Duration sessionTtl = Duration.ofHours(24);
+    // Максимальный размер файла возобновляемой загрузки
+    private DataSize maxSessionSize = DataSize.ofGigabytes(10);
+    // Пауза между проходами очистки просроченных сессий (используется через media.upload.session-cleanup-interval)
+    private Duration sessionCleanupInterval = Duration.ofMinutes(10);
+    // Срок действия presigned-ссылки для прямой загрузки в MinIO
+    private Duration presignedUploadExpiry = Duration.ofHours(1);
+    // Прямая загрузка, не завершенная за это время, считается брошенной и удаляется
+    private Duration pendingUploadTimeout = Duration.ofHours(3);
+
+    @Bean
+    public ThreadPoolTaskExecutor partUploadExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(partUploadThreads);
+        executor.setMaxPoolSize(partUploadThreads);
+        executor.setQueueCapacity(partUploadThreads * 2);
+        executor.setThreadNamePrefix("part-upload-");
+        // При переполнении часть отправляет сам читающий поток - это же притормаживает чтение
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+}
@@ -0,0 +1,162 @@
+package org.ithub.mediastorageservice.config;
+
+import jakarta.annotation.PostConstruct;
+import lombok.Getter;
+import lombok.Setter;
+import org.ithub.mediastorageservice.enums.FitMode;
+import org.ithub.mediastorageservice.enums.MediaType;
+import org.ithub.mediastorageservice.enums.VariantFormat;
+import org.ithub.mediastorageservice.util.VariantSpec;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Реестр профилей вариантов (media.variants.profiles.<имя>). Имя профиля - имя варианта
+ * и часть ключа объекта. Если профили не заданы, используется стандартный набор
+ */
+@Getter
+@Setter
+@Configuration
+@ConfigurationProperties(prefix = "media.variants")
+public class VariantProfileConfig {
+    private static final Pattern NAME = Pattern.compile("[a-z0-9_-]+");
+
+    private Map<String, Profile> profiles = new LinkedHashMap<>();
+    // Ленивый режим: при загрузке строятся только профили с eager, остальные - при первом запросе
+    private boolean lazy;
+    // Пауза между проходами проверки устаревших вариантов (используется через media.variants.regeneration-interval)
+    private Duration regenerationInterval = Duration.ofMinutes(10);
+    // Сколько файлов проверяется за одну порцию
+    private int regenerationBatchSize = 100;
+
+    @Getter
+    @Setter
+    public static class Profile {
+        private int width;
+        private int height;
+        private FitMode fit = FitMode.CONTAIN;
+        private VariantFormat format = VariantFormat.JPEG;
+        private float quality = 0.85f;
+        private boolean progressive;
+        // Бюджет размера результата (только для JPEG); null - без ограничения
+        private DataSize maxBytes;
+        private Set<MediaType> mediaTypes = EnumSet.of(MediaType.IMAGE);
+        // Строить при загрузке и в ленивом режиме (например, миниатюру для списков)
+        private boolean eager;
+        // Строить только при первом запросе, даже вне ленивого режима (редко запрашиваемые варианты)
+        private boolean lazy;
+
+        public Profile() {
+        }
+
+        private Profile(int width, int height, float quality, boolean progressive, DataSize maxBytes) {
+            this.width = width;
+            this.height = height;
+            this.quality = quality;
+            this.progressive = progressive;
+            this.maxBytes = maxBytes;
+        }
+    }
+
+    @PostConstruct
+    public void validate() {
+        for (Map.Entry<String, Profile> entry : activeProfiles().entrySet()) {
+            String name = entry.getKey();
+            Profile profile = entry.getValue();
+            if (!NAME.matcher(name).matches()) {
+                throw new IllegalStateException("Variant profile name must match " + NAME + ": " + name);
+            }
+            if (profile.getWidth() < 0 || profile.getHeight() < 0 || profile.getWidth() + profile.getHeight() == 0) {
+                throw new IllegalStateException("Variant profile " + name + " needs a positive width or height");
+            }
+            if (profile.isEager() && profile.isLazy()) {
+                throw new IllegalStateException("Variant profile " + name + " cannot be both eager and lazy");
+            }
+            if (profile.getQuality() <= 0 || profile.getQuality() > 1) {
+                throw new IllegalStateException("Variant profile " + name + " quality must be in (0, 1]");
+            }
+        }
+    }
+
+    /**
+     * Варианты, которые строятся для файла такого типа
+     */
+    public List<VariantSpec> specsFor(MediaType mediaType) {
+        return activeProfiles().entrySet().stream()
+                .filter(entry -> entry.getValue().getMediaTypes().contains(mediaType))
+                .map(entry -> toSpec(entry.getKey(), entry.getValue()))
+                .toList();
+    }
+
+    /**
+     * Варианты, которые строятся при загрузке: в ленивом режиме только профили с eager
+     */
+    public List<VariantSpec> eagerSpecsFor(MediaType mediaType) {
+        return specsFor(mediaType).stream()
+                .filter(spec -> isEager(spec.getName()))
+                .toList();
+    }
+
+    public boolean isEager(String name) {
+        Profile profile = activeProfiles().get(name);
+        if (profile == null || profile.isLazy()) {
+            return false;
+        }
+        return !lazy || profile.isEager();
+    }
+
+    /**
+     * Профиль, если он применим к файлам такого типа
+     */
+    public Optional<VariantSpec> spec(String name, MediaType mediaType) {
+        return Optional.ofNullable(activeProfiles().get(name))
+                .filter(profile -> profile.getMediaTypes().contains(mediaType))
+                .map(profile -> toSpec(name, profile));
+    }
+
+    public Optional<VariantSpec> spec(String name) {
+        return Optional.ofNullable(activeProfiles().get(name)).map(profile -> toSpec(name, profile));
+    }
+
+    public Set<String> names() {
+        return activeProfiles().keySet();
+    }
+
+    private Map<String, Profile> activeProfiles() {
+        return profiles.isEmpty() ? DEFAULT_PROFILES : profiles;
+    }
+
+    private static VariantSpec toSpec(String name, Profile profile) {
+        long maxBytes = profile.getMaxBytes() != null && profile.getFormat() == VariantFormat.JPEG
+                ? profile.getMaxBytes().toBytes() : 0;
+        return new VariantSpec(name, profile.getWidth(), profile.getHeight(), profile.getFit(), profile.getFormat(),
+                profile.getQuality(), profile.isProgressive(), maxBytes);
+    }
+
+    // Миниатюра, средний размер и варианты для социальных сетей.
+    // Мелкие варианты - с пониженным качеством, крупные - прогрессивные и с лимитами площадок (Instagram 8 МБ, Telegram 10 МБ)
+    private static final Map<String, Profile> DEFAULT_PROFILES = new LinkedHashMap<>();
+
+    static {
+        Profile thumbnail = new Profile(150, 150, 0.75f, false, null);
+        thumbnail.setEager(true);
+        DEFAULT_PROFILES.put("thumbnail", thumbnail);
+        DEFAULT_PROFILES.put("medium", new Profile(600, 600, 0.8f, false, null));
+        DEFAULT_PROFILES.put("instagram", new Profile(1080, 1080, 0.85f, true, DataSize.ofMegabytes(8)));
+        DEFAULT_PROFILES.put("telegram", new Profile(1280, 0, 0.85f, true, DataSize.ofMegabytes(10)));
+        // ВКонтакте - соотношение сторон 16:9; строится по запросу, чтобы не добавлять кодирование к каждой загрузке
+        Profile vk = new Profile(1280, 720, 0.85f, true, null);
+        vk.setLazy(true);
+        DEFAULT_PROFILES.put("vk", vk);
+    }
+}
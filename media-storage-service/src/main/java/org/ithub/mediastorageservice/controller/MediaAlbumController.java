@@ -3,6 +3,7 @@ package org.ithub.mediastorageservice.controller;
 import io.swagger.v3.oas.annotations.Operation;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.ithub.mediastorageservice.dto.CursorPageDTO;
 import org.ithub.mediastorageservice.dto.MediaAlbumDTO;
 import org.ithub.mediastorageservice.dto.MediaFileDTO;
 import org.ithub.mediastorageservice.service.MediaAlbumService;
@@ -10,8 +11,10 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
 @Slf4j
 @RestController
@@ -66,9 +69,31 @@ public class MediaAlbumController {
         Sort sort = Sort.by(sortDirection.equalsIgnoreCase("asc") ? Sort.Direction.ASC : Sort.Direction.DESC, sortBy);
         Pageable pageable = PageRequest.of(page, size, sort);
 
-        Page<MediaFileDTO> files = mediaAlbumService.getFilesFromAlbum(id, pageable);
+        try {
+            Page<MediaFileDTO> files = mediaAlbumService.getFilesFromAlbum(id, pageable);
 
-        log.info("Found {} files in album with id: {}", files.getTotalElements(), id);
-        return ResponseEntity.ok(files);
+            log.info("Found {} files in album with id: {}", files.getTotalElements(), id);
+            return ResponseEntity.ok(files);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    @GetMapping("/{id}/files/scroll")
+    @Operation(summary = "Постраничный обход файлов альбома", description = "Keyset-пагинация по дате создания: nextToken из ответа передается в token")
+    public ResponseEntity<CursorPageDTO<MediaFileDTO>> scrollFilesFromAlbum(
+            @PathVariable Long id,
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(defaultValue = "desc") String sortDirection,
+            @RequestParam(required = false) String token
+    ) {
+        log.info("Scrolling files from album with id: {}, size: {}, token: {}", id, size, token);
+        Sort.Direction direction = sortDirection.equalsIgnoreCase("asc") ? Sort.Direction.ASC : Sort.Direction.DESC;
+
+        try {
+            return ResponseEntity.ok(mediaAlbumService.scrollFilesFromAlbum(id, size, direction, token));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
     }
 }
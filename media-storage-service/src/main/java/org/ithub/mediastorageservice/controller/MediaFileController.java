@@ -1,23 +1,28 @@
 package org.ithub.mediastorageservice.controller;
 
 import io.swagger.v3.oas.annotations.Operation;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.ithub.mediastorageservice.dto.MediaBulkDeleteDTO;
 import org.ithub.mediastorageservice.dto.MediaFileDTO;
 import org.ithub.mediastorageservice.dto.MediaUploadRequestDTO;
+import org.ithub.mediastorageservice.dto.PresignedUploadDTO;
+import org.ithub.mediastorageservice.enums.MediaStatus;
 import org.ithub.mediastorageservice.enums.MediaType;
 import org.ithub.mediastorageservice.model.MediaFile;
 import org.ithub.mediastorageservice.service.MediaFileService;
 import org.ithub.mediastorageservice.service.MediaVariantService;
-import org.springframework.core.io.Resource;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.io.IOException;
@@ -28,6 +33,8 @@ import java.util.Set;
 @RequiredArgsConstructor
 @RequestMapping("/media/files")
 public class MediaFileController {
+    private static final int MAX_BULK_DELETE = 1000;
+
     private final MediaFileService mediaFileService;
     private final MediaVariantService mediaVariantService;
 
@@ -41,19 +48,18 @@ public class MediaFileController {
     }
 
     @GetMapping("/{id}/content")
-    @Operation(summary = "Получение содержимого медиа-файла", description = "Возвращает бинарное содержимое файла")
-    public ResponseEntity<Resource> getContentMediaFileById(@PathVariable Long id) {
-        log.info("Retrieving media file content for id: {}", id);
-        Resource content = mediaFileService.getMediaContent(id);
-        return ResponseEntity.ok(content);
+    @Operation(summary = "Получение содержимого медиа-файла", description = "Возвращает бинарное содержимое файла, поддерживает Range и If-Range")
+    public ResponseEntity<StreamingResponseBody> getContentMediaFileById(@PathVariable Long id, @RequestHeader HttpHeaders headers) {
+        log.info("Retrieving media file content for id: {}, range: {}", id, headers.getFirst(HttpHeaders.RANGE));
+        return mediaFileService.getMediaContent(id, headers);
     }
 
     @GetMapping("/{id}/variants/{variantName}")
-    @Operation(summary = "Получение варианта медиа-файла", description = "Возвращает содержимое указанного варианта файла (например, thumbnail)")
-    public ResponseEntity<Resource> getVariantContentById(@PathVariable Long id, @PathVariable String variantName) {
+    @Operation(summary = "Получение варианта медиа-файла", description = "Возвращает содержимое указанного варианта файла (например, thumbnail), поддерживает Range и If-Range")
+    public ResponseEntity<StreamingResponseBody> getVariantContentById(@PathVariable Long id, @PathVariable String variantName,
+                                                                       @RequestHeader HttpHeaders headers) {
         log.info("Retrieving variant {} for media file id: {}", variantName, id);
-        Resource content = mediaVariantService.getVariantContent(id, variantName);
-        return ResponseEntity.ok(content);
+        return mediaVariantService.getVariantContent(id, variantName, headers);
     }
 
 
@@ -72,16 +78,85 @@ public class MediaFileController {
             MediaFile mediaFile = mediaFileService.createMediaFile(file, description, tags);
             MediaFileDTO mediaFileDTO = mediaFileService.convertToDTO(mediaFile);
 
-            log.info("File uploaded successfully. Media ID: {}", mediaFile.getId());
-            return ResponseEntity.status(HttpStatus.CREATED).body(mediaFileDTO);
+            log.info("File uploaded successfully. Media ID: {}, status: {}", mediaFile.getId(), mediaFile.getStatus());
+            // Варианты генерируются в фоне: 202, пока файл в обработке
+            HttpStatus status = mediaFile.getStatus() == MediaStatus.PROCESSING ? HttpStatus.ACCEPTED : HttpStatus.CREATED;
+            return ResponseEntity.status(status).body(mediaFileDTO);
         } catch (IOException e) {
             log.error("Error uploading file: {}", e.getMessage(), e);
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to upload file", e);
         }
     }
 
+    @PostMapping(value = "/stream", consumes = "*/*")
+    @Operation(summary = "Потоковая загрузка большого медиа-файла", description = "Тело запроса - содержимое файла; уходит в MinIO частями параллельно, без буферизации всего файла")
+    public ResponseEntity<MediaFileDTO> uploadMediaFileStream(
+            HttpServletRequest request,
+            @RequestParam String filename,
+            @RequestParam(required = false) String description,
+            @RequestParam(required = false) Set<String> tags) {
+        log.info("Streaming upload of file: {}, declared size: {}", filename, request.getContentLengthLong());
+
+        try {
+            String contentType = request.getContentType() != null ? request.getContentType() : "application/octet-stream";
+            MediaFile mediaFile = mediaFileService.createMediaFileFromStream(request.getInputStream(), filename,
+                    contentType, description, tags);
+            log.info("File uploaded successfully. Media ID: {}, status: {}", mediaFile.getId(), mediaFile.getStatus());
+            HttpStatus status = mediaFile.getStatus() == MediaStatus.PROCESSING ? HttpStatus.ACCEPTED : HttpStatus.CREATED;
+            return ResponseEntity.status(status).body(mediaFileService.convertToDTO(mediaFile));
+        } catch (IOException e) {
+            log.error("Error uploading file: {}", e.getMessage(), e);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to upload file", e);
+        }
+    }
+
+    @PostMapping("/presigned")
+    @Operation(summary = "Прямая загрузка в MinIO", description = "Создает файл в статусе UPLOADING и возвращает presigned-ссылку; байты идут в MinIO мимо сервиса")
+    public ResponseEntity<PresignedUploadDTO> createPresignedUpload(
+            @RequestParam String filename,
+            @RequestParam(required = false) String contentType,
+            @RequestParam(required = false) Long size,
+            @RequestParam(required = false) String description,
+            @RequestParam(required = false) Set<String> tags) {
+        log.info("Creating presigned upload for file: {}, size: {}", filename, size);
+        try {
+            PresignedUploadDTO upload = mediaFileService.createPresignedUpload(filename,
+                    contentType != null ? contentType : "application/octet-stream", size, description, tags);
+            return ResponseEntity.status(HttpStatus.CREATED).body(upload);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    @PostMapping("/{id}/finalize")
+    @Operation(summary = "Завершение прямой загрузки", description = "Проверяет объект в MinIO, читает заголовок и ставит генерацию вариантов")
+    public ResponseEntity<MediaFileDTO> finalizeUpload(@PathVariable Long id) {
+        log.info("Finalizing direct upload of media file id: {}", id);
+        try {
+            MediaFile mediaFile = mediaFileService.finalizeUpload(id);
+            HttpStatus status = mediaFile.getStatus() == MediaStatus.PROCESSING ? HttpStatus.ACCEPTED : HttpStatus.CREATED;
+            return ResponseEntity.status(status).body(mediaFileService.convertToDTO(mediaFile));
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage(), e);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    @PostMapping("/{id}/reprocess")
+    @Operation(summary = "Повторная генерация вариантов", description = "Ставит изображение в очередь на повторную генерацию вариантов")
+    public ResponseEntity<MediaFileDTO> reprocessMediaFile(@PathVariable Long id) {
+        log.info("Reprocessing variants for media file id: {}", id);
+        try {
+            MediaFile mediaFile = mediaFileService.reprocessMediaFile(id);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(mediaFileService.convertToDTO(mediaFile));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
     @DeleteMapping("/{id}")
-    @Operation(summary = "Удаление медиа-файла", description = "Полностью удаляет файл, его варианты и связанные данные")
+    @Operation(summary = "Удаление медиа-файла", description = "Помечает файл удаленным; объекты и связанные данные очищаются в фоне")
     public ResponseEntity<Void> deleteMediaFileById(@PathVariable Long id) {
         log.info("Deleting media file with id: {}", id);
         mediaFileService.deleteMediaFile(id);
@@ -89,17 +164,33 @@ public class MediaFileController {
         return ResponseEntity.noContent().build();
     }
 
+    @PostMapping("/bulk-delete")
+    @Operation(summary = "Пакетное удаление медиа-файлов", description = "Помечает файлы удаленными одним запросом; очистка хранилища выполняется в фоне")
+    public ResponseEntity<MediaBulkDeleteDTO> bulkDeleteMediaFiles(@RequestBody MediaBulkDeleteDTO request) {
+        Set<Long> ids = request.getIds();
+        if (ids == null || ids.isEmpty() || ids.size() > MAX_BULK_DELETE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "From 1 to " + MAX_BULK_DELETE + " ids are required");
+        }
+
+        log.info("Bulk deleting {} media files", ids.size());
+        int deleted = mediaFileService.deleteMediaFiles(ids);
+        log.info("{} of {} media files marked as deleted", deleted, ids.size());
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(new MediaBulkDeleteDTO(ids, deleted));
+    }
+
     @GetMapping
-    @Operation(summary = "Поиск медиа-файлов", description = "Поиск с фильтрацией по тегам, типу и пагинацией")
+    @Operation(summary = "Поиск медиа-файлов", description = "Поиск с фильтрацией по тегам (любой или все - matchAll), типу и пагинацией")
     public ResponseEntity<Page<MediaFileDTO>> searchFiles(
             @RequestParam(required = false) Set<String> tags,
             @RequestParam(required = false) String mediaType,
+            @RequestParam(defaultValue = "false") boolean matchAll,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
             @RequestParam(defaultValue = "createdAt") String sortBy,
             @RequestParam(defaultValue = "desc") String sortDirection) {
-        log.info("Searching media files with tags: {}, mediaType: {}, page: {}, size: {}",
-                tags, mediaType, page, size);
+        log.info("Searching media files with tags: {} (matchAll: {}), mediaType: {}, page: {}, size: {}",
+                tags, matchAll, mediaType, page, size);
 
         Sort sort = Sort.by(
                 sortDirection.equalsIgnoreCase("asc") ?
@@ -113,15 +204,15 @@ public class MediaFileController {
         if (mediaType != null && !mediaType.isEmpty()) {
             try {
                 MediaType type = MediaType.valueOf(mediaType.toUpperCase());
-                results = mediaFileService.findByTagsAndType(tags, type, pageable);
+                results = mediaFileService.findByTagsAndType(tags, matchAll, type, pageable);
             } catch (IllegalArgumentException e) {
                 log.warn("Invalid media type: {}", mediaType);
                 // Если указан неверный тип, игнорируем его
-                results = mediaFileService.findByTags(tags, pageable);
+                results = mediaFileService.findByTags(tags, matchAll, pageable);
             }
         } else {
             // Поиск только по тегам
-            results = mediaFileService.findByTags(tags, pageable);
+            results = mediaFileService.findByTags(tags, matchAll, pageable);
         }
 
         log.info("Found {} media files matching criteria", results.getTotalElements());
@@ -0,0 +1,42 @@
+package org.ithub.mediastorageservice.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.ithub.mediastorageservice.dto.ReconcileReportDTO;
+import org.ithub.mediastorageservice.service.MediaReconcileService;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.LocalDate;
+
+@Slf4j
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/media/reconcile")
+public class MediaReconcileController {
+    private final MediaReconcileService mediaReconcileService;
+
+    @PostMapping
+    @Operation(summary = "Запуск сверки хранилища и БД", description = "Ищет объекты без строк в БД и строки без объектов по дневным префиксам; repair=true исправляет расхождения")
+    public ResponseEntity<ReconcileReportDTO> startReconcile(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(defaultValue = "false") boolean repair) {
+        log.info("Starting storage reconciliation from {} to {}, repair: {}", from, to, repair);
+        if (!mediaReconcileService.start(from, to, repair)) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Reconciliation is already running");
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(mediaReconcileService.getLastReport());
+    }
+
+    @GetMapping
+    @Operation(summary = "Отчет последней сверки", description = "Возвращает прогресс или результат последнего запуска сверки")
+    public ResponseEntity<ReconcileReportDTO> getReconcileReport() {
+        ReconcileReportDTO report = mediaReconcileService.getLastReport();
+        return report != null ? ResponseEntity.ok(report) : ResponseEntity.noContent().build();
+    }
+}
@@ -0,0 +1,137 @@
+package org.ithub.mediastorageservice.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.ithub.mediastorageservice.dto.MediaFileDTO;
+import org.ithub.mediastorageservice.dto.UploadSessionDTO;
+import org.ithub.mediastorageservice.enums.MediaStatus;
+import org.ithub.mediastorageservice.exception.UploadOffsetMismatchException;
+import org.ithub.mediastorageservice.model.MediaFile;
+import org.ithub.mediastorageservice.model.UploadSession;
+import org.ithub.mediastorageservice.service.MediaFileService;
+import org.ithub.mediastorageservice.service.MediaUploadSessionService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Возобновляемая загрузка: POST - сессия, PUT - часть с offset, HEAD/GET - принятое смещение,
+ * POST /complete - создание медиа-файла
+ */
+@Slf4j
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/media/uploads")
+public class MediaUploadController {
+    private static final String UPLOAD_OFFSET = "Upload-Offset";
+
+    private final MediaUploadSessionService uploadSessionService;
+    private final MediaFileService mediaFileService;
+
+    @PostMapping
+    @Operation(summary = "Создание сессии возобновляемой загрузки", description = "Возвращает id сессии; части загружаются через PUT с указанием смещения")
+    public ResponseEntity<UploadSessionDTO> createSession(
+            @RequestParam String filename,
+            @RequestParam(required = false) String contentType,
+            @RequestParam(required = false) Long size,
+            @RequestParam(required = false) String description,
+            @RequestParam(required = false) Set<String> tags) {
+        log.info("Creating upload session for file: {}, size: {}", filename, size);
+        try {
+            UploadSession session = uploadSessionService.createSession(filename, contentType, size, description, tags);
+            return ResponseEntity.created(URI.create("/media/uploads/" + session.getId()))
+                    .header(UPLOAD_OFFSET, "0")
+                    .body(toDTO(session));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        } catch (IOException e) {
+            log.error("Error creating upload session: {}", e.getMessage(), e);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to create upload session", e);
+        }
+    }
+
+    @PutMapping(value = "/{id}", consumes = "*/*")
+    @Operation(summary = "Загрузка части", description = "Тело запроса дописывается с offset; offset должен совпадать с уже принятым, иначе 409 с текущим смещением")
+    public ResponseEntity<UploadSessionDTO> uploadChunk(@PathVariable String id, @RequestParam long offset,
+                                                        HttpServletRequest request) {
+        log.debug("Receiving chunk of upload {} at offset {}, length: {}", id, offset, request.getContentLengthLong());
+        try {
+            UploadSession session = uploadSessionService.appendChunk(id, offset, request.getInputStream());
+            return ResponseEntity.ok()
+                    .header(UPLOAD_OFFSET, String.valueOf(session.getCommittedOffset()))
+                    .body(toDTO(session));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        } catch (IOException e) {
+            // Обычно обрыв соединения: принятая часть сохранена, клиент продолжит с нового смещения
+            log.warn("Chunk of upload {} interrupted: {}", id, e.getMessage());
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to receive chunk", e);
+        }
+    }
+
+    @RequestMapping(value = "/{id}", method = RequestMethod.HEAD)
+    @Operation(summary = "Принятое смещение", description = "Возвращает количество принятых байт в заголовке Upload-Offset")
+    public ResponseEntity<Void> getOffset(@PathVariable String id) {
+        UploadSession session = uploadSessionService.getSession(id);
+        return ResponseEntity.ok()
+                .header(UPLOAD_OFFSET, String.valueOf(session.getCommittedOffset()))
+                .build();
+    }
+
+    @GetMapping("/{id}")
+    @Operation(summary = "Состояние сессии загрузки", description = "Возвращает принятое смещение и срок действия сессии")
+    public ResponseEntity<UploadSessionDTO> getSession(@PathVariable String id) {
+        UploadSession session = uploadSessionService.getSession(id);
+        return ResponseEntity.ok()
+                .header(UPLOAD_OFFSET, String.valueOf(session.getCommittedOffset()))
+                .body(toDTO(session));
+    }
+
+    @PostMapping("/{id}/complete")
+    @Operation(summary = "Завершение загрузки", description = "Создает медиа-файл из принятых данных обычным путем загрузки")
+    public ResponseEntity<MediaFileDTO> completeUpload(@PathVariable String id) {
+        log.info("Completing upload session {}", id);
+        try {
+            MediaFile mediaFile = uploadSessionService.complete(id);
+            HttpStatus status = mediaFile.getStatus() == MediaStatus.PROCESSING ? HttpStatus.ACCEPTED : HttpStatus.CREATED;
+            return ResponseEntity.status(status).body(mediaFileService.convertToDTO(mediaFile));
+        } catch (IOException e) {
+            log.error("Error completing upload {}: {}", id, e.getMessage(), e);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to complete upload", e);
+        }
+    }
+
+    @DeleteMapping("/{id}")
+    @Operation(summary = "Отмена загрузки", description = "Удаляет сессию и принятые данные")
+    public ResponseEntity<Void> abortUpload(@PathVariable String id) {
+        uploadSessionService.abort(id);
+        return ResponseEntity.noContent().build();
+    }
+
+    @ExceptionHandler(UploadOffsetMismatchException.class)
+    public ResponseEntity<Map<String, Object>> handleOffsetMismatch(UploadOffsetMismatchException e) {
+        log.warn(e.getMessage());
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+                .header(UPLOAD_OFFSET, String.valueOf(e.getCommittedOffset()))
+                .body(Map.of("error", e.getMessage(), "offset", e.getCommittedOffset()));
+    }
+
+    private UploadSessionDTO toDTO(UploadSession session) {
+        UploadSessionDTO dto = new UploadSessionDTO();
+        dto.setId(session.getId());
+        dto.setOriginalFilename(session.getOriginalFilename());
+        dto.setContentType(session.getContentType());
+        dto.setTotalSize(session.getTotalSize());
+        dto.setOffset(session.getCommittedOffset());
+        dto.setExpiresAt(session.getExpiresAt());
+        return dto;
+    }
+}
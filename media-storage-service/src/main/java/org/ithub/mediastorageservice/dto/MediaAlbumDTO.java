@@ -16,5 +16,5 @@ public class MediaAlbumDTO {
     private String createdBy;
     private Boolean isPublic;
     private Integer fileCount;
-    private List<MediaFileDTO> previewFiles; // Первые несколько файлов для превью
+    private List<MediaPreviewDTO> previewFiles; // Первые несколько файлов для превью (только миниатюры)
 }
\ No newline at end of file
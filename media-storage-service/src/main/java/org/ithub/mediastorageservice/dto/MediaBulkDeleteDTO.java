@@ -0,0 +1,16 @@
+package org.ithub.mediastorageservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Set;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MediaBulkDeleteDTO {
+    private Set<Long> ids;
+    // Заполняется в ответе: сколько файлов помечено на удаление
+    private Integer deleted;
+}
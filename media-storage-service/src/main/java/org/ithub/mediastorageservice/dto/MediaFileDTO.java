@@ -21,6 +21,8 @@ public class MediaFileDTO {
     private String mimeType;
     private Integer width;
     private Integer height;
+    private Integer orientation;
+    private String colorModel;
     private String description;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
@@ -28,5 +30,7 @@ public class MediaFileDTO {
     private Set<String> tags;
     private String url;
     private Map<String, String> variantUrls;
+    // Еще не построенные варианты: путь к эндпоинту сервиса, который построит вариант при первом запросе
+    private Map<String, String> onDemandVariantPaths;
     private String status;
 }
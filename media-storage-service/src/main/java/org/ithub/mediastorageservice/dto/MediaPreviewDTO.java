@@ -0,0 +1,12 @@
+package org.ithub.mediastorageservice.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class MediaPreviewDTO {
+    private Long id;
+    private String mediaType;
+    private String thumbnailUrl; // null, если миниатюры нет (не изображение или еще в обработке)
+}
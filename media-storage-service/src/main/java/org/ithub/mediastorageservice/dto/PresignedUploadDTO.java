@@ -0,0 +1,21 @@
+package org.ithub.mediastorageservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Ссылка для загрузки объекта напрямую в MinIO; после загрузки клиент вызывает finalize
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PresignedUploadDTO {
+    private Long mediaId;
+    private String uploadUrl;
+    // HTTP-метод загрузки по ссылке
+    private String method;
+    private LocalDateTime expiresAt;
+}
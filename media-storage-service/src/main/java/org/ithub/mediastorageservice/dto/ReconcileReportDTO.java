@@ -0,0 +1,29 @@
+package org.ithub.mediastorageservice.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+public class ReconcileReportDTO {
+    private boolean running;
+    private boolean repair;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    private String error;
+
+    private int prefixesScanned;
+    private int prefixesSkipped;
+    private long objectsScanned;
+    // Объекты в хранилище без строки в БД
+    private long orphanObjects;
+    // Строки в БД, указывающие на отсутствующий объект
+    private long missingObjects;
+    private long repairedOrphans;
+    private long repairedMissing;
+
+    private List<String> orphanSamples = new ArrayList<>();
+    private List<String> missingSamples = new ArrayList<>();
+}
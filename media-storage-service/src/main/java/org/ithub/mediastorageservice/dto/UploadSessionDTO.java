@@ -0,0 +1,16 @@
+package org.ithub.mediastorageservice.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+public class UploadSessionDTO {
+    private String id;
+    private String originalFilename;
+    private String contentType;
+    private Long totalSize;
+    // Смещение, с которого клиент продолжает загрузку
+    private long offset;
+    private LocalDateTime expiresAt;
+}
@@ -0,0 +1,6 @@
+package org.ithub.mediastorageservice.enums;
+
+public enum DeliveryMode {
+    PROXY, // Содержимое переписывается из MinIO через сервис
+    REDIRECT // 307 на presigned-ссылку MinIO, байты идут мимо сервиса
+}
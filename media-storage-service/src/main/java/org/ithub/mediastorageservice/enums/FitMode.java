@@ -0,0 +1,6 @@
+package org.ithub.mediastorageservice.enums;
+
+public enum FitMode {
+    CONTAIN, // Изображение целиком вписывается в рамку, пропорции сохраняются
+    COVER // Изображение заполняет рамку, лишнее обрезается по центру
+}
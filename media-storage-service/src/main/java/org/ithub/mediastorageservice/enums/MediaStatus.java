@@ -4,5 +4,6 @@ public enum MediaStatus {
     UPLOADING,
     PROCESSING,
     READY,
-    ERROR
+    ERROR,
+    DELETED // Помечен на удаление, объекты и строки удаляет фоновая очистка
 }
@@ -1,6 +0,0 @@
-package org.ithub.mediastorageservice.enums;
-
-public enum MediaTagType {
-    MANUAL,       // Добавлен пользователем
-    AUTO_DETECTED // Обнаружен автоматически
-}
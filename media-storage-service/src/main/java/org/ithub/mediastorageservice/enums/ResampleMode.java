@@ -0,0 +1,6 @@
+package org.ithub.mediastorageservice.enums;
+
+public enum ResampleMode {
+    GRAPHICS2D, // Один проход Graphics2D.drawImage с бикубической интерполяцией
+    PROGRESSIVE // Последовательные уменьшения вдвое и финальное усреднение по площади (ImageResampler)
+}
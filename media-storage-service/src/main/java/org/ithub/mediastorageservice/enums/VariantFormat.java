@@ -0,0 +1,16 @@
+package org.ithub.mediastorageservice.enums;
+
+public enum VariantFormat {
+    JPEG("image/jpeg"),
+    PNG("image/png");
+
+    private final String mimeType;
+
+    VariantFormat(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+}
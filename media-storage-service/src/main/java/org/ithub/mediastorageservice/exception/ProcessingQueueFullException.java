@@ -0,0 +1,15 @@
+package org.ithub.mediastorageservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class ProcessingQueueFullException extends RuntimeException {
+    public ProcessingQueueFullException(String message) {
+        super(message);
+    }
+
+    public ProcessingQueueFullException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
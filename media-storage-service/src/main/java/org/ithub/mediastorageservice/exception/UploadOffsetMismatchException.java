@@ -0,0 +1,16 @@
+package org.ithub.mediastorageservice.exception;
+
+import lombok.Getter;
+
+/**
+ * Часть возобновляемой загрузки пришла не с того смещения, которое уже принято сервером
+ */
+@Getter
+public class UploadOffsetMismatchException extends RuntimeException {
+    private final long committedOffset;
+
+    public UploadOffsetMismatchException(String message, long committedOffset) {
+        super(message);
+        this.committedOffset = committedOffset;
+    }
+}
@@ -33,7 +33,11 @@ public class MediaAlbum {
     @JoinTable(
             name = "media_album_items",
             joinColumns = @JoinColumn(name = "album_id"),
-            inverseJoinColumns = @JoinColumn(name = "media_id")
+            inverseJoinColumns = @JoinColumn(name = "media_id"),
+            indexes = {
+                    @Index(name = "idx_album_items_album_media", columnList = "album_id, media_id"),
+                    @Index(name = "idx_album_items_media", columnList = "media_id")
+            }
     )
     private List<MediaFile> mediaFiles = new ArrayList<>();
 
@@ -0,0 +1,39 @@
+package org.ithub.mediastorageservice.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Объект в хранилище, адресуемый хэшем содержимого. Несколько MediaFile с одинаковым
+ * содержимым ссылаются на один объект (и его варианты); refCount - число таких файлов
+ */
+@Entity
+@Table(name = "media_blobs", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_media_blobs_hash", columnNames = "contentHash")
+})
+@Data
+@NoArgsConstructor
+public class MediaBlob {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private long id;
+
+    // SHA-256 содержимого (hex)
+    @Column(nullable = false, length = 64)
+    private String contentHash;
+
+    @Column(nullable = false)
+    private String storageKey;
+
+    @Column(nullable = false)
+    private Long size;
+
+    @Column(nullable = false)
+    private int refCount;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+}
@@ -10,15 +10,15 @@ import org.ithub.mediastorageservice.enums.MediaType;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 @Entity
 @Table(name = "media_files", indexes = {
         @Index(name = "idx_media_status", columnList = "status"),
         @Index(name = "idx_media_type", columnList = "mediaType"),
-        @Index(name = "idx_created_at", columnList = "createdAt")
+        @Index(name = "idx_created_at", columnList = "createdAt"),
+        @Index(name = "idx_media_storage_key", columnList = "storageKey"),
+        @Index(name = "idx_media_content_hash", columnList = "contentHash")
 })
 @Data
 @NoArgsConstructor
@@ -34,9 +34,14 @@ public class MediaFile {
     @Column(nullable = false)
     private Long size;
 
-    @Column(nullable = false, unique = true)
+    // Файлы с одинаковым содержимым ссылаются на один объект (см. MediaBlob)
+    @Column(nullable = false)
     private String storageKey;
 
+    // SHA-256 содержимого (hex); null у файлов, загруженных до дедупликации
+    @Column(length = 64)
+    private String contentHash;
+
     @Enumerated(EnumType.STRING)
     @Column(nullable = false)
     private MediaType mediaType;
@@ -53,6 +58,9 @@ public class MediaFile {
     // Для изображений и видео
     private Integer width;
     private Integer height;
+    // EXIF-ориентация и цветовая модель (из заголовка изображения)
+    private Integer orientation;
+    private String colorModel;
 
     // Метаданные
     @Column(columnDefinition = "TEXT")
@@ -63,10 +71,12 @@ public class MediaFile {
 
     private LocalDateTime updatedAt;
 
-    @ElementCollection
-    @CollectionTable(name = "media_tags", joinColumns = @JoinColumn(name = "media_id"))
-    @Column(name = "tag")
-    private Set<String> tags = new HashSet<>();
+    // Теги прямой загрузки (по одному на строку); записываются в таблицу тегов при ее завершении
+    @Column(columnDefinition = "TEXT")
+    private String pendingTags;
+
+    // Время пометки на удаление (статус DELETED)
+    private LocalDateTime deletedAt;
 
     // Ссылки на варианты (разные размеры)
     @OneToMany(mappedBy = "mediaFile", cascade = CascadeType.ALL, orphanRemoval = true)
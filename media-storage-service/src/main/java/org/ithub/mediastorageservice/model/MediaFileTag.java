@@ -0,0 +1,29 @@
+package org.ithub.mediastorageservice.model;
+
+import jakarta.persistence.EmbeddedId;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Узкая таблица связей файл-тег: первичный ключ (media_id, tag_id)
+ * и обратный индекс (tag_id, media_id) для поиска файлов по тегу
+ */
+@Entity
+@Table(name = "media_file_tags", indexes = {
+        @Index(name = "idx_media_file_tags_tag_media", columnList = "tag_id, media_id")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MediaFileTag {
+    @EmbeddedId
+    private MediaFileTagId id;
+
+    public MediaFileTag(Long mediaId, Integer tagId) {
+        this.id = new MediaFileTagId(mediaId, tagId);
+    }
+}
@@ -0,0 +1,24 @@
+package org.ithub.mediastorageservice.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * Составной ключ связи файл-тег (media_id, tag_id)
+ */
+@Embeddable
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MediaFileTagId implements Serializable {
+    @Column(name = "media_id", nullable = false)
+    private Long mediaId;
+
+    @Column(name = "tag_id", nullable = false)
+    private Integer tagId;
+}
@@ -0,0 +1,47 @@
+package org.ithub.mediastorageservice.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.ithub.mediastorageservice.enums.MediaStatus;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "media_processing_jobs", indexes = {
+        @Index(name = "idx_job_status", columnList = "status")
+})
+@Data
+@NoArgsConstructor
+public class MediaProcessingJob {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private long id;
+
+    @OneToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "media_id", nullable = false, unique = true)
+    private MediaFile mediaFile;
+
+    // PROCESSING -> READY / ERROR
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private MediaStatus status = MediaStatus.PROCESSING;
+
+    private int attempts;
+
+    @Column(columnDefinition = "TEXT")
+    private String lastError;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    // Момент постановки в очередь; задача может ждать воркера, не начавшись
+    private LocalDateTime submittedAt;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+}
@@ -7,7 +7,12 @@ import lombok.NoArgsConstructor;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "media_variants")
+@Table(name = "media_variants", indexes = {
+        @Index(name = "idx_variant_storage_key", columnList = "storageKey")
+}, uniqueConstraints = {
+        // Один вариант профиля на файл - в том числе при ленивой генерации на нескольких экземплярах
+        @UniqueConstraint(name = "uk_variant_media_name", columnNames = {"media_id", "variantName"})
+})
 @Data
 @NoArgsConstructor
 public class MediaVariant {
@@ -22,13 +27,21 @@ public class MediaVariant {
     @Column(nullable = false)
     private String variantName;
 
-    @Column(nullable = false, unique = true)
+    // Копии файла с тем же содержимым используют те же объекты вариантов
+    @Column(nullable = false)
     private String storageKey;
 
     private Integer width;
     private Integer height;
     private Long size;
 
+    // null у вариантов, созданных до реестра профилей (image/jpeg)
+    private String mimeType;
+
+    // Отпечаток параметров профиля, по которым построен вариант (см. VariantSpec.fingerprint)
+    @Column(length = 16)
+    private String profileFingerprint;
+
     @Column(nullable = false)
     private LocalDateTime createdAt = LocalDateTime.now();
 }
@@ -0,0 +1,29 @@
+package org.ithub.mediastorageservice.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Результат последней сверки хранилища и БД по одному префиксу (yyyy/MM/dd/)
+ */
+@Entity
+@Table(name = "media_reconcile_checkpoints")
+@Data
+@NoArgsConstructor
+public class ReconcileCheckpoint {
+    @Id
+    private String prefix;
+
+    @Column(nullable = false)
+    private LocalDateTime scannedAt;
+
+    private long objectCount;
+    private long orphanCount;
+    private long missingCount;
+}
@@ -0,0 +1,51 @@
+package org.ithub.mediastorageservice.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Сессия возобновляемой загрузки: части дописываются во временный файл на диске по смещению,
+ * после завершения файл проходит обычное создание MediaFile
+ */
+@Entity
+@Table(name = "media_upload_sessions", indexes = {
+        @Index(name = "idx_upload_sessions_expires_at", columnList = "expiresAt")
+})
+@Data
+@NoArgsConstructor
+public class UploadSession {
+    @Id
+    @Column(length = 36)
+    private String id;
+
+    @Column(nullable = false)
+    private String originalFilename;
+
+    @Column(nullable = false)
+    private String contentType;
+
+    private String description;
+
+    // Теги через запятую - передаются в MediaFile при завершении
+    @Column(length = 1000)
+    private String tags;
+
+    // Заявленный размер файла; null - размер заранее неизвестен
+    private Long totalSize;
+
+    // Сколько байт от начала файла уже принято
+    @Column(nullable = false)
+    private long committedOffset;
+
+    @Column(nullable = false)
+    private String stagingPath;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    @Column(nullable = false)
+    private LocalDateTime expiresAt;
+}
@@ -5,8 +5,12 @@ import org.ithub.mediastorageservice.model.MediaFile;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -17,4 +21,46 @@ public interface MediaAlbumRepository extends JpaRepository<MediaAlbum, Long> {
     Optional<MediaAlbum> findByNameAndCreatedBy(String name, String createdBy);
     List<MediaAlbum> findByMediaFilesContaining(MediaFile mediaFile);
     Page<MediaAlbum> findByIsPublic(Boolean isPublic, Pageable pageable);
+
+    /**
+     * Количество файлов в каждом альбоме страницы одним агрегирующим запросом
+     */
+    @Query("select a.id as albumId, count(m) as fileCount from MediaAlbum a join a.mediaFiles m " +
+            "where a.id in :albumIds and m.status <> org.ithub.mediastorageservice.enums.MediaStatus.DELETED group by a.id")
+    List<AlbumFileCount> countFilesByAlbumIds(@Param("albumIds") Collection<Long> albumIds);
+
+    /**
+     * Первые limit файлов каждого альбома (новые сначала) с ключом миниатюры - оконная функция вместо загрузки коллекций
+     */
+    @Query(value = "select ranked.album_id as \"albumId\", ranked.media_id as \"mediaId\", " +
+            "ranked.media_type as \"mediaType\", ranked.thumbnail_key as \"thumbnailKey\" " +
+            "from (select i.album_id, f.id as media_id, f.media_type, v.storage_key as thumbnail_key, " +
+            "row_number() over (partition by i.album_id order by f.created_at desc, f.id desc) as rn " +
+            "from media_album_items i " +
+            "join media_files f on f.id = i.media_id " +
+            "left join media_variants v on v.media_id = f.id and v.variant_name = 'thumbnail' " +
+            "where i.album_id in (:albumIds) and f.status <> 'DELETED') ranked " +
+            "where ranked.rn <= :limit " +
+            "order by ranked.album_id, ranked.rn",
+            nativeQuery = true)
+    List<AlbumPreviewRow> findPreviewRows(@Param("albumIds") Collection<Long> albumIds, @Param("limit") int limit);
+
+    /**
+     * Удаление файлов из всех альбомов одним запросом (при очистке удаленных файлов)
+     */
+    @Modifying
+    @Query(value = "delete from media_album_items where media_id in (:mediaIds)", nativeQuery = true)
+    int deleteItemsByMediaIds(@Param("mediaIds") Collection<Long> mediaIds);
+
+    interface AlbumFileCount {
+        Long getAlbumId();
+        Long getFileCount();
+    }
+
+    interface AlbumPreviewRow {
+        Long getAlbumId();
+        Long getMediaId();
+        String getMediaType();
+        String getThumbnailKey();
+    }
 }
@@ -0,0 +1,21 @@
+package org.ithub.mediastorageservice.repository;
+
+import jakarta.persistence.LockModeType;
+import org.ithub.mediastorageservice.model.MediaBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface MediaBlobRepository extends JpaRepository<MediaBlob, Long> {
+    /**
+     * Блокировка строки до конца транзакции: изменение refCount не гонится с очисткой
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select b from MediaBlob b where b.contentHash = :contentHash")
+    Optional<MediaBlob> findForUpdate(@Param("contentHash") String contentHash);
+}
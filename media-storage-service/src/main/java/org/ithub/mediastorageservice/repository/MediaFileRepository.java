@@ -3,18 +3,234 @@ package org.ithub.mediastorageservice.repository;
 import org.ithub.mediastorageservice.enums.MediaStatus;
 import org.ithub.mediastorageservice.enums.MediaType;
 import org.ithub.mediastorageservice.model.MediaFile;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
-import java.util.Set;
+import java.util.Optional;
 
 @Repository
 public interface MediaFileRepository extends JpaRepository<MediaFile, Long> {
-    Page<MediaFile> findByMediaType(MediaType mediaType, Pageable pageable);
+    Page<MediaFile> findByMediaTypeAndStatusNotIn(MediaType mediaType, Collection<MediaStatus> statuses, Pageable pageable);
+    Page<MediaFile> findByStatusNotIn(Collection<MediaStatus> statuses, Pageable pageable);
+    Optional<MediaFile> findByIdAndStatusNot(Long id, MediaStatus status);
+    Optional<MediaFile> findByIdAndStatusNotIn(Long id, Collection<MediaStatus> statuses);
     List<MediaFile> findByStatus(MediaStatus status);
-    Page<MediaFile> findByTagsIn(Set<String> tags, Pageable pageable);
-    Page<MediaFile> findByTagsInAndMediaType(Set<String> tags, MediaType mediaType, Pageable pageable);
+    Optional<MediaFile> findFirstByStorageKeyAndStatusAndIdNotOrderByIdAsc(String storageKey, MediaStatus status, Long id);
+
+    /**
+     * Файлы, у которых есть хотя бы один из тегов (по id из словаря тегов)
+     */
+    @Query("select f from MediaFile f where f.id in " +
+            "(select l.id.mediaId from MediaFileTag l where l.id.tagId in :tagIds) " +
+            "and f.status not in (org.ithub.mediastorageservice.enums.MediaStatus.DELETED, " +
+            "org.ithub.mediastorageservice.enums.MediaStatus.UPLOADING)")
+    Page<MediaFile> findByAnyTagIds(@Param("tagIds") Collection<Integer> tagIds, Pageable pageable);
+
+    @Query("select f from MediaFile f where f.mediaType = :mediaType and f.id in " +
+            "(select l.id.mediaId from MediaFileTag l where l.id.tagId in :tagIds) " +
+            "and f.status not in (org.ithub.mediastorageservice.enums.MediaStatus.DELETED, " +
+            "org.ithub.mediastorageservice.enums.MediaStatus.UPLOADING)")
+    Page<MediaFile> findByAnyTagIdsAndMediaType(@Param("tagIds") Collection<Integer> tagIds,
+                                                @Param("mediaType") MediaType mediaType, Pageable pageable);
+
+    /**
+     * Страница файлов альбома; сортировка и пагинация выполняются в БД
+     */
+    @Query(value = "select f from MediaFile f where f.id in " +
+            "(select m.id from MediaAlbum a join a.mediaFiles m where a.id = :albumId) " +
+            "and f.status not in (org.ithub.mediastorageservice.enums.MediaStatus.DELETED, " +
+            "org.ithub.mediastorageservice.enums.MediaStatus.UPLOADING)",
+            countQuery = "select count(m) from MediaAlbum a join a.mediaFiles m where a.id = :albumId " +
+                    "and m.status not in (org.ithub.mediastorageservice.enums.MediaStatus.DELETED, " +
+                    "org.ithub.mediastorageservice.enums.MediaStatus.UPLOADING)")
+    Page<MediaFile> findByAlbumId(@Param("albumId") Long albumId, Pageable pageable);
+
+    /**
+     * Keyset-страницы файлов альбома по (createdAt, id) - без OFFSET для глубоких страниц
+     */
+    @Query("select f from MediaFile f where f.id in " +
+            "(select m.id from MediaAlbum a join a.mediaFiles m where a.id = :albumId) " +
+            "and f.status not in (org.ithub.mediastorageservice.enums.MediaStatus.DELETED, " +
+            "org.ithub.mediastorageservice.enums.MediaStatus.UPLOADING) " +
+            "order by f.createdAt desc, f.id desc")
+    List<MediaFile> findAlbumFirstPageDesc(@Param("albumId") Long albumId, Limit limit);
+
+    @Query("select f from MediaFile f where f.id in " +
+            "(select m.id from MediaAlbum a join a.mediaFiles m where a.id = :albumId) " +
+            "and f.status not in (org.ithub.mediastorageservice.enums.MediaStatus.DELETED, " +
+            "org.ithub.mediastorageservice.enums.MediaStatus.UPLOADING) " +
+            "order by f.createdAt asc, f.id asc")
+    List<MediaFile> findAlbumFirstPageAsc(@Param("albumId") Long albumId, Limit limit);
+
+    @Query("select f from MediaFile f where f.id in " +
+            "(select m.id from MediaAlbum a join a.mediaFiles m where a.id = :albumId) " +
+            "and f.status not in (org.ithub.mediastorageservice.enums.MediaStatus.DELETED, " +
+            "org.ithub.mediastorageservice.enums.MediaStatus.UPLOADING) " +
+            "and (f.createdAt < :createdAt or (f.createdAt = :createdAt and f.id < :id)) " +
+            "order by f.createdAt desc, f.id desc")
+    List<MediaFile> findAlbumPageBefore(@Param("albumId") Long albumId,
+                                        @Param("createdAt") LocalDateTime createdAt,
+                                        @Param("id") Long id,
+                                        Limit limit);
+
+    @Query("select f from MediaFile f where f.id in " +
+            "(select m.id from MediaAlbum a join a.mediaFiles m where a.id = :albumId) " +
+            "and f.status not in (org.ithub.mediastorageservice.enums.MediaStatus.DELETED, " +
+            "org.ithub.mediastorageservice.enums.MediaStatus.UPLOADING) " +
+            "and (f.createdAt > :createdAt or (f.createdAt = :createdAt and f.id > :id)) " +
+            "order by f.createdAt asc, f.id asc")
+    List<MediaFile> findAlbumPageAfter(@Param("albumId") Long albumId,
+                                       @Param("createdAt") LocalDateTime createdAt,
+                                       @Param("id") Long id,
+                                       Limit limit);
+
+    /**
+     * Файлы, у которых есть все перечисленные теги (используется, пока индекс тегов не готов)
+     */
+    @Query("select f from MediaFile f where " +
+            "(select count(l) from MediaFileTag l where l.id.mediaId = f.id and l.id.tagId in :tagIds) = :tagCount " +
+            "and f.status not in (org.ithub.mediastorageservice.enums.MediaStatus.DELETED, " +
+            "org.ithub.mediastorageservice.enums.MediaStatus.UPLOADING)")
+    Page<MediaFile> findByAllTagIds(@Param("tagIds") Collection<Integer> tagIds, @Param("tagCount") long tagCount,
+                                    Pageable pageable);
+
+    @Query("select f from MediaFile f where f.mediaType = :mediaType and " +
+            "(select count(l) from MediaFileTag l where l.id.mediaId = f.id and l.id.tagId in :tagIds) = :tagCount " +
+            "and f.status not in (org.ithub.mediastorageservice.enums.MediaStatus.DELETED, " +
+            "org.ithub.mediastorageservice.enums.MediaStatus.UPLOADING)")
+    Page<MediaFile> findByAllTagIdsAndMediaType(@Param("tagIds") Collection<Integer> tagIds,
+                                                @Param("tagCount") long tagCount,
+                                                @Param("mediaType") MediaType mediaType, Pageable pageable);
+
+    /**
+     * Порция (id, mediaType) для построения индекса тегов
+     */
+    @Query("select f.id as id, f.mediaType as mediaType from MediaFile f where f.id > :afterId " +
+            "and f.status not in (org.ithub.mediastorageservice.enums.MediaStatus.DELETED, " +
+            "org.ithub.mediastorageservice.enums.MediaStatus.UPLOADING) order by f.id")
+    List<FileTypeRow> findTypeRowsAfter(@Param("afterId") long afterId, Limit limit);
+
+    /**
+     * Порция готовых изображений (для проверки вариантов на соответствие профилям)
+     */
+    @Query("select f from MediaFile f where f.id > :afterId " +
+            "and f.mediaType = org.ithub.mediastorageservice.enums.MediaType.IMAGE " +
+            "and f.status = org.ithub.mediastorageservice.enums.MediaStatus.READY order by f.id")
+    List<MediaFile> findReadyImagesAfter(@Param("afterId") long afterId, Limit limit);
+
+    /**
+     * Точечное обновление статуса без merge всей сущности (не трогает коллекцию variants)
+     */
+    @Transactional
+    @Modifying
+    @Query("update MediaFile m set m.status = :status " +
+            "where m.id = :id and m.status not in (org.ithub.mediastorageservice.enums.MediaStatus.DELETED, " +
+            "org.ithub.mediastorageservice.enums.MediaStatus.UPLOADING)")
+    int updateStatus(@Param("id") Long id, @Param("status") MediaStatus status);
+
+    /**
+     * Завершение прямой загрузки: размер и данные заголовка из хранилища, новый статус.
+     * Срабатывает только для файла в статусе UPLOADING - повторное завершение ничего не меняет
+     */
+    @Transactional
+    @Modifying
+    @Query("update MediaFile m set m.status = :status, m.size = :size, m.width = :width, m.height = :height, " +
+            "m.orientation = :orientation, m.colorModel = :colorModel, m.pendingTags = null, m.updatedAt = :updatedAt " +
+            "where m.id = :id and m.status = org.ithub.mediastorageservice.enums.MediaStatus.UPLOADING")
+    int completeUpload(@Param("id") Long id, @Param("status") MediaStatus status, @Param("size") Long size,
+                       @Param("width") Integer width, @Param("height") Integer height,
+                       @Param("orientation") Integer orientation, @Param("colorModel") String colorModel,
+                       @Param("updatedAt") LocalDateTime updatedAt);
+
+    /**
+     * Прямые загрузки, так и не завершенные клиентом
+     */
+    @Query("select f.id from MediaFile f where f.status = org.ithub.mediastorageservice.enums.MediaStatus.UPLOADING " +
+            "and f.createdAt < :createdBefore order by f.id")
+    List<Long> findAbandonedUploadIds(@Param("createdBefore") LocalDateTime createdBefore, Limit limit);
+
+    /**
+     * Пометка файлов на удаление; сами объекты и строки удаляет MediaPurgeService
+     */
+    @Transactional
+    @Modifying
+    @Query("update MediaFile m set m.status = org.ithub.mediastorageservice.enums.MediaStatus.DELETED, " +
+            "m.deletedAt = :deletedAt " +
+            "where m.id in :ids and m.status <> org.ithub.mediastorageservice.enums.MediaStatus.DELETED")
+    int markDeleted(@Param("ids") Collection<Long> ids, @Param("deletedAt") LocalDateTime deletedAt);
+
+    /**
+     * Порция помеченных на удаление файлов, у которых нет выполняющейся задачи обработки.
+     * Задачи, брошенные дольше activeBefore (перезапуск экземпляра), удалению не мешают
+     */
+    @Query("select f.id as id, f.storageKey as storageKey, f.contentHash as contentHash from MediaFile f " +
+            "where f.status = org.ithub.mediastorageservice.enums.MediaStatus.DELETED " +
+            "and f.deletedAt <= :deletedBefore " +
+            "and not exists (select j from MediaProcessingJob j where j.mediaFile = f " +
+            "and j.status = org.ithub.mediastorageservice.enums.MediaStatus.PROCESSING " +
+            "and coalesce(j.startedAt, j.submittedAt, j.createdAt) >= :activeBefore) " +
+            "order by f.deletedAt")
+    List<PurgeRow> findPurgeRows(@Param("deletedBefore") LocalDateTime deletedBefore,
+                                 @Param("activeBefore") LocalDateTime activeBefore, Limit limit);
+
+    @Modifying
+    @Query("delete from MediaFile f where f.id in :ids and f.status = org.ithub.mediastorageservice.enums.MediaStatus.DELETED")
+    int deleteMarked(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Порция ключей объектов (оригиналы и варианты) под префиксом в побайтовом порядке,
+     * совпадающем с порядком листинга MinIO
+     */
+    @Query(value = "select k.storage_key from (" +
+            "select storage_key from media_files where storage_key like :pattern " +
+            "union " +
+            "select storage_key from media_variants where storage_key like :pattern) k " +
+            "where k.storage_key collate \"C\" > :afterKey " +
+            "order by k.storage_key collate \"C\" limit :limit",
+            nativeQuery = true)
+    List<String> findStorageKeysAfter(@Param("pattern") String pattern,
+                                      @Param("afterKey") String afterKey,
+                                      @Param("limit") int limit);
+
+    @Query("select f.id from MediaFile f where f.storageKey in :storageKeys " +
+            "and f.status <> org.ithub.mediastorageservice.enums.MediaStatus.UPLOADING " +
+            "and f.createdAt < :createdBefore")
+    List<Long> findIdsByStorageKeys(@Param("storageKeys") Collection<String> storageKeys,
+                                    @Param("createdBefore") LocalDateTime createdBefore);
+
+    @Query("select min(f.createdAt) from MediaFile f")
+    Optional<LocalDateTime> findEarliestCreatedAt();
+
+    /**
+     * Количество файлов набора на каждый хэш содержимого (для снятия ссылок на MediaBlob)
+     */
+    @Query("select f.contentHash as contentHash, count(f) as fileCount from MediaFile f " +
+            "where f.id in :ids and f.contentHash is not null group by f.contentHash")
+    List<HashCount> countByContentHash(@Param("ids") Collection<Long> ids);
+
+    interface PurgeRow {
+        Long getId();
+        String getStorageKey();
+        String getContentHash();
+    }
+
+    interface HashCount {
+        String getContentHash();
+        Long getFileCount();
+    }
+
+    interface FileTypeRow {
+        Long getId();
+        MediaType getMediaType();
+    }
 }
@@ -0,0 +1,53 @@
+package org.ithub.mediastorageservice.repository;
+
+import org.ithub.mediastorageservice.model.MediaFileTag;
+import org.ithub.mediastorageservice.model.MediaFileTagId;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface MediaFileTagRepository extends JpaRepository<MediaFileTag, MediaFileTagId>, MediaFileTagRepositoryCustom {
+    /**
+     * Имена тегов для набора файлов (mediaFileId, name)
+     */
+    @Query("select l.id.mediaId as mediaFileId, t.name as name from MediaFileTag l " +
+            "join Tag t on t.id = l.id.tagId where l.id.mediaId in :mediaIds")
+    List<TagNameRow> findTagNames(@Param("mediaIds") Collection<Long> mediaIds);
+
+    /**
+     * Порция связей для построения индекса тегов, keyset по первичному ключу (media_id, tag_id)
+     */
+    @Query("select l.id.mediaId as mediaFileId, l.id.tagId as tagId from MediaFileTag l " +
+            "where l.id.mediaId > :afterMediaId or (l.id.mediaId = :afterMediaId and l.id.tagId > :afterTagId) " +
+            "order by l.id.mediaId, l.id.tagId")
+    List<TagLinkRow> findLinkRowsAfter(@Param("afterMediaId") long afterMediaId,
+                                       @Param("afterTagId") int afterTagId,
+                                       Limit limit);
+
+    @Transactional
+    @Modifying
+    @Query("delete from MediaFileTag l where l.id.mediaId = :mediaId")
+    void deleteByMediaId(@Param("mediaId") Long mediaId);
+
+    @Modifying
+    @Query("delete from MediaFileTag l where l.id.mediaId in :mediaIds")
+    int deleteByMediaIds(@Param("mediaIds") Collection<Long> mediaIds);
+
+    interface TagNameRow {
+        Long getMediaFileId();
+        String getName();
+    }
+
+    interface TagLinkRow {
+        Long getMediaFileId();
+        Integer getTagId();
+    }
+}
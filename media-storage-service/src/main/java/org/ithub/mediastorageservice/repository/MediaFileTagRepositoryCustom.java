@@ -0,0 +1,20 @@
+package org.ithub.mediastorageservice.repository;
+
+import java.util.Collection;
+
+/**
+ * Массовые операции со связями файл-тег, каждая выполняется одним SQL-запросом
+ */
+public interface MediaFileTagRepositoryCustom {
+    /**
+     * Добавление тегов к файлу: недостающие имена попадают в словарь, существующие связи пропускаются
+     * @return количество новых связей
+     */
+    int addTags(long mediaId, Collection<String> names);
+
+    /**
+     * Удаление связей файла с тегами по именам
+     * @return количество удаленных связей
+     */
+    int removeTags(long mediaId, Collection<String> names);
+}
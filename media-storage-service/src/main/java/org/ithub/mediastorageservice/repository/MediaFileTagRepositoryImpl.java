@@ -0,0 +1,57 @@
+package org.ithub.mediastorageservice.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.util.Collection;
+
+@RequiredArgsConstructor
+public class MediaFileTagRepositoryImpl implements MediaFileTagRepositoryCustom {
+    // Вставка в словарь и в таблицу связей двумя запросами. "do nothing" не блокирует строки
+    // уже существующих (популярных) тегов, но и не возвращает их id. Поэтому id всех имен
+    // выбираются вторым запросом: у него новый снимок, и в нем видны имена, вставленные
+    // параллельной транзакцией (первый запрос дожидается ее завершения на конфликте)
+    private static final String INSERT_TAG_NAMES_SQL = """
+            insert into tags (name) select distinct unnest(?::text[])
+            on conflict (name) do nothing
+            """;
+
+    private static final String INSERT_TAG_LINKS_SQL = """
+            insert into media_file_tags (media_id, tag_id)
+            select ?, t.id from tags t where t.name = any (?::text[])
+            on conflict do nothing
+            """;
+
+    private static final String REMOVE_TAGS_SQL = """
+            delete from media_file_tags l using tags t
+            where l.tag_id = t.id and l.media_id = ? and t.name = any (?::text[])
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public int addTags(long mediaId, Collection<String> names) {
+        jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement(INSERT_TAG_NAMES_SQL);
+            ps.setArray(1, con.createArrayOf("text", names.toArray()));
+            return ps;
+        });
+        return jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement(INSERT_TAG_LINKS_SQL);
+            ps.setLong(1, mediaId);
+            ps.setArray(2, con.createArrayOf("text", names.toArray()));
+            return ps;
+        });
+    }
+
+    @Override
+    public int removeTags(long mediaId, Collection<String> names) {
+        return jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement(REMOVE_TAGS_SQL);
+            ps.setLong(1, mediaId);
+            ps.setArray(2, con.createArrayOf("text", names.toArray()));
+            return ps;
+        });
+    }
+}
@@ -0,0 +1,43 @@
+package org.ithub.mediastorageservice.repository;
+
+import org.ithub.mediastorageservice.enums.MediaStatus;
+import org.ithub.mediastorageservice.model.MediaProcessingJob;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface MediaProcessingJobRepository extends JpaRepository<MediaProcessingJob, Long> {
+    Optional<MediaProcessingJob> findByMediaFileId(Long mediaFileId);
+
+    @Transactional
+    @Modifying
+    @Query("update MediaProcessingJob j set j.status = :status, j.attempts = :attempts, " +
+            "j.lastError = :lastError, j.finishedAt = :finishedAt where j.mediaFile.id = :mediaFileId")
+    int updateResult(@Param("mediaFileId") Long mediaFileId,
+                     @Param("status") MediaStatus status,
+                     @Param("attempts") int attempts,
+                     @Param("lastError") String lastError,
+                     @Param("finishedAt") LocalDateTime finishedAt);
+
+    /**
+     * Задачи в PROCESSING, которые не начались или не завершились за отведенное время
+     */
+    @Query("select j from MediaProcessingJob j join fetch j.mediaFile " +
+            "where j.status = org.ithub.mediastorageservice.enums.MediaStatus.PROCESSING " +
+            "and coalesce(j.startedAt, j.submittedAt, j.createdAt) < :activeBefore order by j.id")
+    List<MediaProcessingJob> findStale(@Param("activeBefore") LocalDateTime activeBefore, Limit limit);
+
+    @Modifying
+    @Query("delete from MediaProcessingJob j where j.mediaFile.id in :mediaFileIds")
+    int deleteByMediaFileIds(@Param("mediaFileIds") Collection<Long> mediaFileIds);
+}
@@ -2,14 +2,87 @@ package org.ithub.mediastorageservice.repository;
 
 import org.ithub.mediastorageservice.model.MediaVariant;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface MediaVariantRepository extends JpaRepository<MediaVariant, Long> {
     List<MediaVariant> findByMediaFileId(Long mediaFileId);
+    List<MediaVariant> findByMediaFileIdIn(Collection<Long> mediaFileIds);
     Optional<MediaVariant> findByMediaFileIdAndVariantName(Long mediaFileId, String variantName);
-    void deleteByMediaFileId(Long mediaFileId);
+
+    /**
+     * Вариант для выдачи: файл, помеченный на удаление, уже недоступен, хотя очистка еще не прошла
+     */
+    @Query("select v from MediaVariant v where v.mediaFile.id = :mediaFileId and v.variantName = :variantName " +
+            "and v.mediaFile.status <> org.ithub.mediastorageservice.enums.MediaStatus.DELETED")
+    Optional<MediaVariant> findServable(@Param("mediaFileId") Long mediaFileId, @Param("variantName") String variantName);
+
+    /**
+     * Ключи вариантов набора файлов (mediaFileId, storageKey) без загрузки сущностей
+     */
+    @Query("select v.mediaFile.id as mediaFileId, v.storageKey as storageKey from MediaVariant v " +
+            "where v.mediaFile.id in :mediaFileIds")
+    List<VariantKeyRow> findKeyRowsByMediaFileIds(@Param("mediaFileIds") Collection<Long> mediaFileIds);
+
+    @Modifying
+    @Query("delete from MediaVariant v where v.mediaFile.id in :mediaFileIds")
+    int deleteByMediaFileIds(@Param("mediaFileIds") Collection<Long> mediaFileIds);
+
+    @Transactional
+    @Modifying
+    @Query("delete from MediaVariant v where v.storageKey in :storageKeys and v.createdAt < :createdBefore")
+    int deleteByStorageKeys(@Param("storageKeys") Collection<String> storageKeys,
+                            @Param("createdBefore") LocalDateTime createdBefore);
+
+    /**
+     * Имена и отпечатки профилей вариантов набора файлов (для поиска устаревших вариантов)
+     */
+    @Query("select v.mediaFile.id as mediaFileId, v.variantName as variantName, " +
+            "v.profileFingerprint as profileFingerprint from MediaVariant v where v.mediaFile.id in :mediaFileIds")
+    List<VariantProfileRow> findProfileRowsByMediaFileIds(@Param("mediaFileIds") Collection<Long> mediaFileIds);
+
+    /**
+     * Варианты профилей, которых больше нет в реестре
+     */
+    @Query("select v.mediaFile.id as mediaFileId, v.storageKey as storageKey from MediaVariant v " +
+            "where v.mediaFile.id in :mediaFileIds and v.variantName not in :variantNames")
+    List<VariantKeyRow> findKeyRowsByMediaFileIdsAndVariantNameNotIn(@Param("mediaFileIds") Collection<Long> mediaFileIds,
+                                                                    @Param("variantNames") Collection<String> variantNames);
+
+    @Modifying(flushAutomatically = true)
+    @Query("delete from MediaVariant v where v.mediaFile.id = :mediaFileId and v.variantName in :variantNames")
+    int deleteByMediaFileIdAndVariantNameIn(@Param("mediaFileId") Long mediaFileId,
+                                            @Param("variantNames") Collection<String> variantNames);
+
+    @Transactional
+    @Modifying
+    @Query("delete from MediaVariant v where v.mediaFile.id in :mediaFileIds and v.variantName not in :variantNames")
+    int deleteByMediaFileIdsAndVariantNameNotIn(@Param("mediaFileIds") Collection<Long> mediaFileIds,
+                                                @Param("variantNames") Collection<String> variantNames);
+
+    /**
+     * Ключи из набора, на которые еще ссылаются варианты (объекты вариантов общие у файлов с одинаковым содержимым)
+     */
+    @Query("select distinct v.storageKey from MediaVariant v where v.storageKey in :storageKeys")
+    List<String> findReferencedStorageKeys(@Param("storageKeys") Collection<String> storageKeys);
+
+    interface VariantProfileRow {
+        Long getMediaFileId();
+        String getVariantName();
+        String getProfileFingerprint();
+    }
+
+    interface VariantKeyRow {
+        Long getMediaFileId();
+        String getStorageKey();
+    }
 }
\ No newline at end of file
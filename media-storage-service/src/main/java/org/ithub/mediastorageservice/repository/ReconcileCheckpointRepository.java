@@ -0,0 +1,9 @@
+package org.ithub.mediastorageservice.repository;
+
+import org.ithub.mediastorageservice.model.ReconcileCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ReconcileCheckpointRepository extends JpaRepository<ReconcileCheckpoint, String> {
+}
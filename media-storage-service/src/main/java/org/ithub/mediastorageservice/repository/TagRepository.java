@@ -0,0 +1,13 @@
+package org.ithub.mediastorageservice.repository;
+
+import org.ithub.mediastorageservice.model.Tag;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface TagRepository extends JpaRepository<Tag, Integer> {
+    List<Tag> findByNameIn(Collection<String> names);
+}
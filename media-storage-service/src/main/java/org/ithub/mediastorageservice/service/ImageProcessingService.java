@@ -2,17 +2,33 @@ package org.ithub.mediastorageservice.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.ithub.mediastorageservice.config.ProcessingConfig;
+import org.ithub.mediastorageservice.enums.FitMode;
+import org.ithub.mediastorageservice.enums.ResampleMode;
+import org.ithub.mediastorageservice.enums.VariantFormat;
 import org.ithub.mediastorageservice.model.MediaFile;
 import org.ithub.mediastorageservice.model.MediaVariant;
 import org.ithub.mediastorageservice.repository.MediaVariantRepository;
+import org.ithub.mediastorageservice.util.ImageResampler;
+import org.ithub.mediastorageservice.util.JpegEncoder;
+import org.ithub.mediastorageservice.util.SubsampledImageDecoder;
+import org.ithub.mediastorageservice.util.VariantSpec;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Slf4j
 @Service
@@ -20,84 +36,175 @@ import java.io.IOException;
 public class ImageProcessingService {
     private final MediaStorageService mediaStorageService;
     private final MediaVariantRepository mediaVariantRepository;
+    private final ThreadPoolTaskExecutor variantEncodingExecutor;
+    private final SubsampledImageDecoder imageDecoder;
+    private final ProcessingConfig processingConfig;
+    private final JpegEncoder jpegEncoder;
 
     /**
-     * Создание миниатюры изображения
+     * Создание варианта изображения измененного размера
      */
-    public MediaVariant createThumbnail(MediaFile mediaFile, byte[] imageData, int width, int height) {
-        return createResizedVariant(mediaFile, imageData, width, height, "thumbnail");
+    public MediaVariant createResizedVariant(MediaFile mediaFile, byte[] imageData, int width, int height, String variantName) {
+        return createVariants(mediaFile, imageData, List.of(new VariantSpec(variantName, width, height))).get(0);
     }
 
     /**
-     * Создание варианта изображения измененного размера
+     * Генерация набора вариантов за одно декодирование оригинала.
+     * Оригинал декодируется с прореживанием - ровно настолько, насколько нужно наибольшему варианту,
+     * и только в пределах общего бюджета пикселей (см. SubsampledImageDecoder).
+     * Профили вычисляются как один граф: варианты строятся от большего к меньшему, каждое уменьшение
+     * берется из ближайшего уже готового промежуточного изображения, а профили с одинаковым
+     * размером масштабирования используют одно изображение (различаются только обрезкой и кодированием).
+     * Кодирование и загрузка в MinIO выполняются параллельно.
      */
-    public MediaVariant createResizedVariant(MediaFile mediaFile, byte[] imageData, int width, int height, String variantName) {
-        try {
-            // Читаем оригинальное изображение
-            ByteArrayInputStream inputStream = new ByteArrayInputStream(imageData);
-            BufferedImage originalImage = ImageIO.read(inputStream);
+    public List<MediaVariant> createVariants(MediaFile mediaFile, byte[] imageData, List<VariantSpec> specs) {
+        return mediaVariantRepository.saveAll(buildVariants(mediaFile, imageData, specs));
+    }
 
-            if (originalImage == null) {
-                throw new IllegalArgumentException("Cannot read image data");
+    /**
+     * Генерация и загрузка вариантов без сохранения записей (их сохраняет вызывающий, например с заменой старых)
+     */
+    public List<MediaVariant> buildVariants(MediaFile mediaFile, byte[] imageData, List<VariantSpec> specs) {
+        try (SubsampledImageDecoder.Source source = imageDecoder.open(imageData)) {
+            int originalWidth = source.getWidth();
+            int originalHeight = source.getHeight();
+
+            List<VariantPlan> plans = new ArrayList<>();
+            int maxWidth = 1;
+            int maxHeight = 1;
+            for (VariantSpec spec : specs) {
+                VariantPlan plan = VariantPlan.of(spec, originalWidth, originalHeight);
+                plans.add(plan);
+                maxWidth = Math.max(maxWidth, plan.scaledWidth());
+                maxHeight = Math.max(maxHeight, plan.scaledHeight());
             }
 
-            // Создаем уменьшенное изображение с сохранением пропорций
-            BufferedImage resizedImage = resizeImage(originalImage, width, height);
+            // Бюджет держится, пока из оригинала строятся уменьшенные копии
+            BufferedImage originalImage = source.decode(maxWidth, maxHeight);
+            return buildVariants(mediaFile, originalImage, plans);
+        } catch (IOException e) {
+            log.error("Error decoding image for mediaId {}: {}", mediaFile.getId(), e.getMessage(), e);
+            throw new RuntimeException("Failed to create image variant", e);
+        }
+    }
+
+    private List<MediaVariant> buildVariants(MediaFile mediaFile, BufferedImage originalImage, List<VariantPlan> plans) {
+        // Сортируем по площади масштабирования: от большего варианта к меньшему
+        List<VariantPlan> ordered = new ArrayList<>(plans);
+        ordered.sort(Comparator.comparingLong((VariantPlan plan) -> (long) plan.scaledWidth() * plan.scaledHeight()).reversed());
 
-            // Сохраняем в формате JPEG
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            ImageIO.write(resizedImage, "JPEG", outputStream);
-            byte[] resizedImageData = outputStream.toByteArray();
+        // Масштабированные изображения по размеру: общий узел графа для нескольких профилей
+        Map<Long, BufferedImage> scaled = new HashMap<>();
+        List<CompletableFuture<MediaVariant>> uploads = new ArrayList<>();
 
-            // Формируем путь в хранилище
-            String storageKey = generateVariantKey(mediaFile.getStorageKey(), variantName);
+        for (VariantPlan plan : ordered) {
+            long sizeKey = (long) plan.scaledWidth() << 32 | plan.scaledHeight();
+            BufferedImage resizedImage = scaled.get(sizeKey);
+            if (resizedImage == null) {
+                BufferedImage source = nearestLargerSource(scaled.values(), originalImage, plan.scaledWidth(), plan.scaledHeight());
+                resizedImage = resizeImage(source, plan.scaledWidth(), plan.scaledHeight());
+                scaled.put(sizeKey, resizedImage);
+            }
+            BufferedImage output = plan.crop(resizedImage);
 
-            // Загружаем в MinIO
-            mediaStorageService.uploadBytes(resizedImageData, storageKey, "image/jpeg");
+            // Кодирование и загрузка идут параллельно со следующими уменьшениями
+            uploads.add(CompletableFuture.supplyAsync(
+                    () -> encodeAndUpload(mediaFile, output, plan.spec()), variantEncodingExecutor));
+        }
+
+        // Ждем кодирование здесь же: до возврата бюджета декодирования
+        try {
+            CompletableFuture.allOf(uploads.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+
+        return uploads.stream()
+                .map(CompletableFuture::join)
+                .toList();
+    }
+
+    /**
+     * Кодирование готового варианта в формат профиля и загрузка в хранилище (без сохранения в БД)
+     */
+    private MediaVariant encodeAndUpload(MediaFile mediaFile, BufferedImage image, VariantSpec spec) {
+        String variantName = spec.getName();
+        try {
+            byte[] imageData = encode(image, spec);
+
+            // Формируем путь в хранилище и загружаем в MinIO
+            String storageKey = generateVariantKey(mediaFile.getStorageKey(), variantName);
+            mediaStorageService.uploadBytes(imageData, storageKey, spec.getFormat().getMimeType());
 
-            // Создаем запись о варианте
             MediaVariant variant = new MediaVariant();
             variant.setMediaFile(mediaFile);
             variant.setVariantName(variantName);
             variant.setStorageKey(storageKey);
-            variant.setWidth(resizedImage.getWidth());
-            variant.setHeight(resizedImage.getHeight());
-            variant.setSize((long) resizedImageData.length);
-
-            return mediaVariantRepository.save(variant);
+            variant.setWidth(image.getWidth());
+            variant.setHeight(image.getHeight());
+            variant.setSize((long) imageData.length);
+            variant.setMimeType(spec.getFormat().getMimeType());
+            variant.setProfileFingerprint(spec.fingerprint());
+            return variant;
         } catch (IOException e) {
             log.error("Error creating image variant: {}", e.getMessage(), e);
             throw new RuntimeException("Failed to create image variant", e);
         }
     }
 
+    private byte[] encode(BufferedImage image, VariantSpec spec) throws IOException {
+        if (spec.getFormat() == VariantFormat.PNG) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", outputStream);
+            return outputStream.toByteArray();
+        }
+        return jpegEncoder.encode(image, spec.getQuality(), spec.isProgressive(), spec.getMaxBytes());
+    }
+
     /**
-     * Оптимизация изображения для социальной сети
+     * Узел графа вариантов: размер масштабирования и (для COVER) центрированная обрезка до размера профиля
      */
-    public MediaVariant optimizeForSocialNetwork(MediaFile mediaFile, byte[] imageData, String network) {
-        // Разные настройки для разных соцсетей
-        if ("instagram".equalsIgnoreCase(network)) {
-            // Instagram - квадратное изображение
-            return createResizedVariant(mediaFile, imageData, 1080, 1080, "instagram");
-        } else if ("vk".equalsIgnoreCase(network)) {
-            // ВКонтакте - соотношение сторон 16:9
-            return createResizedVariant(mediaFile, imageData, 1280, 720, "vk");
-        } else if ("telegram".equalsIgnoreCase(network)) {
-            // Telegram - макс. ширина 1280px
-            return createResizedVariant(mediaFile, imageData, 1280, 0, "telegram");
-        } else {
-            // По умолчанию
-            return createResizedVariant(mediaFile, imageData, 1200, 630, "social");
+    private record VariantPlan(VariantSpec spec, int scaledWidth, int scaledHeight, int width, int height) {
+        static VariantPlan of(VariantSpec spec, int originalWidth, int originalHeight) {
+            if (spec.getFit() == FitMode.COVER && spec.getWidth() > 0 && spec.getHeight() > 0) {
+                // Масштаб по большему отношению: изображение покрывает рамку целиком
+                double ratio = Math.max((double) spec.getWidth() / originalWidth, (double) spec.getHeight() / originalHeight);
+                int scaledWidth = Math.max(spec.getWidth(), (int) Math.round(originalWidth * ratio));
+                int scaledHeight = Math.max(spec.getHeight(), (int) Math.round(originalHeight * ratio));
+                return new VariantPlan(spec, scaledWidth, scaledHeight, spec.getWidth(), spec.getHeight());
+            }
+            int[] size = computeTargetSize(originalWidth, originalHeight, spec.getWidth(), spec.getHeight());
+            return new VariantPlan(spec, size[0], size[1], size[0], size[1]);
+        }
+
+        BufferedImage crop(BufferedImage scaled) {
+            if (width == scaled.getWidth() && height == scaled.getHeight()) {
+                return scaled;
+            }
+            return scaled.getSubimage((scaled.getWidth() - width) / 2, (scaled.getHeight() - height) / 2, width, height);
         }
     }
 
     /**
-     * Изменение размера изображения с сохранением пропорций
+     * Выбор наименьшего из готовых изображений, которое не меньше целевого размера
      */
-    private BufferedImage resizeImage(BufferedImage originalImage, int targetWidth, int targetHeight) {
-        int originalWidth = originalImage.getWidth();
-        int originalHeight = originalImage.getHeight();
+    private BufferedImage nearestLargerSource(Collection<BufferedImage> intermediates, BufferedImage originalImage,
+                                              int targetWidth, int targetHeight) {
+        BufferedImage best = originalImage;
+        for (BufferedImage candidate : intermediates) {
+            boolean largeEnough = candidate.getWidth() >= targetWidth && candidate.getHeight() >= targetHeight;
+            boolean smaller = (long) candidate.getWidth() * candidate.getHeight() < (long) best.getWidth() * best.getHeight();
+            if (largeEnough && smaller) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
 
+    /**
+     * Вычисление итогового размера с сохранением пропорций
+     */
+    private static int[] computeTargetSize(int originalWidth, int originalHeight, int targetWidth, int targetHeight) {
         // Если одно из измерений равно 0, вычисляем его с сохранением пропорций
         if (targetWidth == 0 && targetHeight > 0) {
             double ratio = (double) targetHeight / originalHeight;
@@ -117,6 +224,19 @@ public class ImageProcessingService {
             }
         }
 
+        return new int[]{Math.max(1, targetWidth), Math.max(1, targetHeight)};
+    }
+
+    /**
+     * Изменение размера изображения до точного размера (пропорции уже учтены в computeTargetSize).
+     * Уменьшение в режиме PROGRESSIVE идет через ImageResampler, увеличение - всегда через Graphics2D
+     */
+    private BufferedImage resizeImage(BufferedImage originalImage, int targetWidth, int targetHeight) {
+        if (processingConfig.getResampleMode() == ResampleMode.PROGRESSIVE
+                && targetWidth <= originalImage.getWidth() && targetHeight <= originalImage.getHeight()) {
+            return ImageResampler.downscale(originalImage, targetWidth, targetHeight);
+        }
+
         // Создаем новое изображение
         BufferedImage resizedImage = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
         Graphics2D g = resizedImage.createGraphics();
@@ -139,7 +259,7 @@ public class ImageProcessingService {
     /**
      * Генерация ключа для варианта изображения
      */
-    private String generateVariantKey(String originalKey, String variantName) {
+    String generateVariantKey(String originalKey, String variantName) {
         // Примерная структура: исходный_путь/variants/имя_варианта/имя_файла
         int lastSlashIndex = originalKey.lastIndexOf("/");
         if (lastSlashIndex == -1) {
@@ -4,27 +4,45 @@ import jakarta.persistence.EntityNotFoundException;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.ithub.mediastorageservice.dto.CursorPageDTO;
 import org.ithub.mediastorageservice.dto.MediaAlbumDTO;
 import org.ithub.mediastorageservice.dto.MediaFileDTO;
+import org.ithub.mediastorageservice.dto.MediaPreviewDTO;
 import org.ithub.mediastorageservice.model.MediaAlbum;
 import org.ithub.mediastorageservice.model.MediaFile;
 import org.ithub.mediastorageservice.repository.MediaAlbumRepository;
+import org.ithub.mediastorageservice.repository.MediaAlbumRepository.AlbumFileCount;
+import org.ithub.mediastorageservice.repository.MediaAlbumRepository.AlbumPreviewRow;
+import org.ithub.mediastorageservice.repository.MediaFileRepository;
+import org.ithub.mediastorageservice.util.ContinuationToken;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.ithub.mediastorageservice.util.MediaFileMapper;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class MediaAlbumService {
+    // Индексированные колонки media_files, по которым разрешена сортировка
+    private static final Set<String> SORTABLE_FILE_PROPERTIES = Set.of("createdAt", "id", "mediaType", "status");
+    // Сколько файлов показывать в превью альбома
+    private static final int PREVIEW_SIZE = 4;
+
     private final MediaAlbumRepository mediaAlbumRepository;
     private final MediaFileMapper fileMapper;
+    private final MediaFileRepository mediaFileRepository;
+    private final PresignedUrlCache presignedUrlCache;
 
     /**
      * Сохранение альбома
@@ -47,7 +65,7 @@ public class MediaAlbumService {
     public Page<MediaAlbumDTO> findAll(Pageable pageable) {
         log.debug("Finding all albums with pageable: {}", pageable);
         Page<MediaAlbum> albums = mediaAlbumRepository.findAll(pageable);
-        return albums.map(this::convertToDTO);
+        return new PageImpl<>(convertToDTOs(albums.getContent()), pageable, albums.getTotalElements());
     }
 
     /**
@@ -56,55 +74,75 @@ public class MediaAlbumService {
     public Page<MediaAlbumDTO> findByIsPublic(Boolean isPublic, Pageable pageable) {
         log.debug("Finding albums with isPublic={} and pageable: {}", isPublic, pageable);
         Page<MediaAlbum> albums = mediaAlbumRepository.findByIsPublic(isPublic, pageable);
-        return albums.map(this::convertToDTO);
+        return new PageImpl<>(convertToDTOs(albums.getContent()), pageable, albums.getTotalElements());
     }
 
     /**
-     * Получение файлов из альбома с пагинацией
+     * Получение файлов из альбома с пагинацией (сортировка и LIMIT/OFFSET в БД)
      */
     public Page<MediaFileDTO> getFilesFromAlbum(Long albumId, Pageable pageable) {
         log.debug("Getting files from album with id: {} and pageable: {}", albumId, pageable);
+        ensureAlbumExists(albumId);
 
-        MediaAlbum album = getAlbum(albumId);
-
-        // Преобразуем список файлов в Page
-        List<MediaFile> mediaFiles = album.getMediaFiles();
+        // Сортировка только по индексированным колонкам, id - для стабильного порядка
+        Sort sort = pageable.getSort();
+        for (Sort.Order order : sort) {
+            if (!SORTABLE_FILE_PROPERTIES.contains(order.getProperty())) {
+                throw new IllegalArgumentException("Unsupported sort property: " + order.getProperty());
+            }
+        }
+        if (sort.getOrderFor("id") == null) {
+            Sort.Direction direction = sort.isSorted() ? sort.iterator().next().getDirection() : Sort.Direction.DESC;
+            sort = sort.and(Sort.by(direction, "id"));
+        }
 
-        // Применяем пагинацию вручную
-        int start = (int)pageable.getOffset();
-        int end = Math.min((start + pageable.getPageSize()), mediaFiles.size());
+        Pageable sortedPageable = PageRequest.of(pageable.getPageNumber(), pageable.getPageSize(), sort);
+        Page<MediaFile> mediaFiles = mediaFileRepository.findByAlbumId(albumId, sortedPageable);
+        return fileMapper.convertPage(mediaFiles);
+    }
 
-        if (start > mediaFiles.size()) {
-            return Page.empty(pageable);
+    /**
+     * Keyset-пагинация файлов альбома по (createdAt, id) для глубоких страниц
+     */
+    public CursorPageDTO<MediaFileDTO> scrollFilesFromAlbum(Long albumId, int size, Sort.Direction direction, String token) {
+        log.debug("Scrolling files from album with id: {}, size: {}, token: {}", albumId, size, token);
+        ensureAlbumExists(albumId);
+
+        // Запрашиваем на одну запись больше, чтобы узнать, есть ли следующая страница
+        Limit limit = Limit.of(size + 1);
+        List<MediaFile> mediaFiles;
+        if (token == null || token.isEmpty()) {
+            mediaFiles = direction.isAscending()
+                    ? mediaFileRepository.findAlbumFirstPageAsc(albumId, limit)
+                    : mediaFileRepository.findAlbumFirstPageDesc(albumId, limit);
+        } else {
+            ContinuationToken position = ContinuationToken.decode(token);
+            direction = position.getDirection();
+            mediaFiles = direction.isAscending()
+                    ? mediaFileRepository.findAlbumPageAfter(albumId, position.getCreatedAt(), position.getId(), limit)
+                    : mediaFileRepository.findAlbumPageBefore(albumId, position.getCreatedAt(), position.getId(), limit);
         }
 
-        // Применяем сортировку
-        Sort sort = pageable.getSort();
-        if (sort.isSorted()) {
-            // Сортировка файлов по указанному полю (упрощенная реализация)
-            mediaFiles.sort((a, b) -> {
-                Sort.Order order = sort.iterator().next();
-                int result = 0;
-
-                // Сравниваем по указанному полю (здесь только для createdAt)
-                if (order.getProperty().equals("createdAt")) {
-                    result = a.getCreatedAt().compareTo(b.getCreatedAt());
-                }
-
-                // Инвертируем результат для DESC сортировки
-                return order.isAscending() ? result : -result;
-            });
-        }
+        boolean hasNext = mediaFiles.size() > size;
+        List<MediaFile> pageContent = hasNext ? mediaFiles.subList(0, size) : mediaFiles;
 
-        // Берем нужный подсписок
-        List<MediaFile> pageContent = mediaFiles.subList(start, end);
+        String nextToken = null;
+        if (hasNext) {
+            MediaFile last = pageContent.get(pageContent.size() - 1);
+            nextToken = new ContinuationToken(last.getCreatedAt(), last.getId(), direction).encode();
+        }
 
-        // Конвертируем в DTO
-        List<MediaFileDTO> contentDto = pageContent.stream()
-                .map(fileMapper::convertToDTO)
-                .collect(Collectors.toList());
+        return CursorPageDTO.<MediaFileDTO>builder()
+                .items(fileMapper.convertToDTOs(pageContent))
+                .nextToken(nextToken)
+                .hasNext(hasNext)
+                .build();
+    }
 
-        return new PageImpl<>(contentDto, pageable, mediaFiles.size());
+    private void ensureAlbumExists(Long albumId) {
+        if (!mediaAlbumRepository.existsById(albumId)) {
+            throw new EntityNotFoundException("MediaAlbum not found with id: " + albumId);
+        }
     }
 
     /**
@@ -152,25 +190,59 @@ public class MediaAlbumService {
         }
     }
 
+    /**
+     * Удаление набора файлов из всех альбомов одним запросом
+     */
+    @Transactional
+    public void removeFilesFromAllAlbums(Collection<Long> mediaFileIds) {
+        mediaAlbumRepository.deleteItemsByMediaIds(mediaFileIds);
+    }
+
     /**
      * Конвертация MediaAlbum в MediaAlbumDTO
      */
     public MediaAlbumDTO convertToDTO(MediaAlbum mediaAlbum) {
-        // Получаем только первые несколько файлов для превью
-        List<MediaFileDTO> previewFiles = mediaAlbum.getMediaFiles().stream()
-                .limit(4)
-                .map(fileMapper::convertToDTO)
+        return convertToDTOs(List.of(mediaAlbum)).get(0);
+    }
+
+    /**
+     * Конвертация страницы альбомов: один COUNT-запрос и один оконный запрос превью на всю страницу,
+     * коллекции mediaFiles не инициализируются
+     */
+    public List<MediaAlbumDTO> convertToDTOs(List<MediaAlbum> mediaAlbums) {
+        if (mediaAlbums.isEmpty()) {
+            return List.of();
+        }
+
+        List<Long> albumIds = mediaAlbums.stream()
+                .map(MediaAlbum::getId)
                 .toList();
 
-        return MediaAlbumDTO.builder()
-                .id(mediaAlbum.getId())
-                .name(mediaAlbum.getName())
-                .description(mediaAlbum.getDescription())
-                .createdAt(mediaAlbum.getCreatedAt())
-                .createdBy(mediaAlbum.getCreatedBy())
-                .isPublic(mediaAlbum.getIsPublic())
-                .previewFiles(previewFiles)
-                .fileCount(mediaAlbum.getMediaFiles().size())
-                .build();
+        Map<Long, Long> fileCounts = mediaAlbumRepository.countFilesByAlbumIds(albumIds).stream()
+                .collect(Collectors.toMap(AlbumFileCount::getAlbumId, AlbumFileCount::getFileCount));
+
+        // Получаем только первые несколько файлов для превью
+        Map<Long, List<MediaPreviewDTO>> previews = mediaAlbumRepository.findPreviewRows(albumIds, PREVIEW_SIZE).stream()
+                .collect(Collectors.groupingBy(AlbumPreviewRow::getAlbumId, Collectors.mapping(row ->
+                        MediaPreviewDTO.builder()
+                                .id(row.getMediaId())
+                                .mediaType(row.getMediaType())
+                                .thumbnailUrl(row.getThumbnailKey() != null
+                                        ? presignedUrlCache.getUrl(row.getThumbnailKey())
+                                        : null)
+                                .build(), Collectors.toList())));
+
+        return mediaAlbums.stream()
+                .map(mediaAlbum -> MediaAlbumDTO.builder()
+                        .id(mediaAlbum.getId())
+                        .name(mediaAlbum.getName())
+                        .description(mediaAlbum.getDescription())
+                        .createdAt(mediaAlbum.getCreatedAt())
+                        .createdBy(mediaAlbum.getCreatedBy())
+                        .isPublic(mediaAlbum.getIsPublic())
+                        .previewFiles(previews.getOrDefault(mediaAlbum.getId(), List.of()))
+                        .fileCount(fileCounts.getOrDefault(mediaAlbum.getId(), 0L).intValue())
+                        .build())
+                .toList();
     }
 }
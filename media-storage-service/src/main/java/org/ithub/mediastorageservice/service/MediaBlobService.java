@@ -0,0 +1,72 @@
+package org.ithub.mediastorageservice.service;
+
+import jakarta.transaction.Transactional;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.ithub.mediastorageservice.model.MediaBlob;
+import org.ithub.mediastorageservice.repository.MediaBlobRepository;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Индекс хэшей содержимого и счетчики ссылок на объекты в хранилище
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MediaBlobService {
+    private final MediaBlobRepository mediaBlobRepository;
+
+    /**
+     * Новая ссылка на уже сохраненное содержимое
+     * @return объект с увеличенным счетчиком или пусто, если такого содержимого нет
+     */
+    @Transactional
+    public Optional<MediaBlob> acquire(String contentHash) {
+        return mediaBlobRepository.findForUpdate(contentHash).map(blob -> {
+            blob.setRefCount(blob.getRefCount() + 1);
+            return blob;
+        });
+    }
+
+    /**
+     * Регистрация только что загруженного объекта с одной ссылкой.
+     * Пусто - такое же содержимое параллельно зарегистрировала другая загрузка
+     */
+    public Optional<MediaBlob> register(String contentHash, String storageKey, long size) {
+        MediaBlob blob = new MediaBlob();
+        blob.setContentHash(contentHash);
+        blob.setStorageKey(storageKey);
+        blob.setSize(size);
+        blob.setRefCount(1);
+        try {
+            return Optional.of(mediaBlobRepository.saveAndFlush(blob));
+        } catch (DataIntegrityViolationException e) {
+            log.info("Content {} was registered concurrently", contentHash);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Снятие ссылок (хэш -> количество). Объекты, на которые больше никто не ссылается,
+     * удаляются из индекса в той же транзакции
+     * @return ключи объектов, которые можно удалить из хранилища
+     */
+    @Transactional
+    public List<String> release(Map<String, Long> references) {
+        List<String> reclaimed = new ArrayList<>();
+        references.forEach((contentHash, count) -> mediaBlobRepository.findForUpdate(contentHash).ifPresent(blob -> {
+            blob.setRefCount((int) (blob.getRefCount() - count));
+            if (blob.getRefCount() <= 0) {
+                mediaBlobRepository.delete(blob);
+                reclaimed.add(blob.getStorageKey());
+            }
+        }));
+        return reclaimed;
+    }
+}
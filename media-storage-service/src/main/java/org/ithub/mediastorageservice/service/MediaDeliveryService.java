@@ -0,0 +1,212 @@
+package org.ithub.mediastorageservice.service;
+
+import io.minio.StatObjectResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.ithub.mediastorageservice.config.DeliveryConfig;
+import org.ithub.mediastorageservice.enums.DeliveryMode;
+import org.ithub.mediastorageservice.service.MediaObjectCache.CachedObject;
+import org.springframework.http.*;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Optional;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MediaDeliveryService {
+    private final MediaStorageService mediaStorageService;
+    private final PresignedUrlCache presignedUrlCache;
+    private final DeliveryConfig deliveryConfig;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Отдача объекта в режиме, заданном для типа медиа: большие объекты в режиме REDIRECT -
+     * 307 на кэшированную presigned-ссылку, остальные (и любые при ошибке подписи) - через сервис
+     */
+    public ResponseEntity<StreamingResponseBody> deliver(String storageKey, String filename, String contentType,
+                                                         org.ithub.mediastorageservice.enums.MediaType mediaType,
+                                                         Long size, boolean cacheable, HttpHeaders requestHeaders) {
+        boolean redirect = deliveryConfig.modeFor(mediaType) == DeliveryMode.REDIRECT
+                && size != null && size >= deliveryConfig.getRedirectThreshold().toBytes();
+        if (redirect) {
+            try {
+                String url = presignedUrlCache.getUrl(storageKey);
+                meterRegistry.counter("media.delivery", "mode", "redirect").increment();
+                return ResponseEntity.status(HttpStatus.TEMPORARY_REDIRECT)
+                        .location(URI.create(url))
+                        .cacheControl(CacheControl.noStore())
+                        .build();
+            } catch (RuntimeException e) {
+                log.warn("Falling back to proxy delivery of {}: {}", storageKey, e.getMessage());
+            }
+        }
+        meterRegistry.counter("media.delivery", "mode", "proxy").increment();
+        if (cacheable) {
+            Optional<CachedObject> cached = mediaStorageService.getCachedFile(storageKey);
+            if (cached.isPresent()) {
+                return deliverCached(storageKey, cached.get(), filename, contentType, requestHeaders);
+            }
+        }
+        return deliver(storageKey, filename, contentType, requestHeaders);
+    }
+
+    /**
+     * Потоковая отдача объекта из хранилища с поддержкой Range / If-Range.
+     * Содержимое не буферизуется: байты переписываются из ответа MinIO прямо в ответ сервлета,
+     * запрошенный диапазон превращается в GET с offset/length
+     */
+    public ResponseEntity<StreamingResponseBody> deliver(String storageKey, String filename, String contentType,
+                                                         HttpHeaders requestHeaders) {
+        StatObjectResponse stat = mediaStorageService.statFile(storageKey);
+        return respond(stat.size(), stat.etag(), stat.lastModified(), contentType != null ? contentType : stat.contentType(),
+                filename, requestHeaders, (offset, length) -> stream(storageKey, offset, length, stat.etag()));
+    }
+
+    /**
+     * Отдача из локального кэша без обращения к MinIO. Если запись вытеснена до начала отдачи,
+     * тот же диапазон читается из хранилища (с проверкой ETag)
+     */
+    private ResponseEntity<StreamingResponseBody> deliverCached(String storageKey, CachedObject cached, String filename,
+                                                                String contentType, HttpHeaders requestHeaders) {
+        return respond(cached.size(), cached.etag(), cached.lastModified(),
+                contentType != null ? contentType : cached.contentType(), filename, requestHeaders,
+                (offset, length) -> outputStream -> {
+                    long rangeLength = length != null ? length : cached.size() - offset;
+                    if (cached.data() != null) {
+                        cached.transferTo(null, outputStream, offset, rangeLength);
+                        return;
+                    }
+                    Optional<FileChannel> channel = cached.open();
+                    if (channel.isEmpty()) {
+                        stream(storageKey, offset, length, cached.etag()).writeTo(outputStream);
+                        return;
+                    }
+                    try (FileChannel file = channel.get()) {
+                        cached.transferTo(file, outputStream, offset, rangeLength);
+                    }
+                });
+    }
+
+    /**
+     * Ответ с поддержкой Range / If-Range по метаданным объекта; тело строит body по выбранному диапазону
+     */
+    private ResponseEntity<StreamingResponseBody> respond(long size, String etag, ZonedDateTime lastModified,
+                                                          String contentType, String filename,
+                                                          HttpHeaders requestHeaders, BodySource body) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        headers.setETag("\"" + etag + "\"");
+        headers.setLastModified(lastModified);
+        headers.setContentType(parseContentType(contentType));
+        if (filename != null) {
+            headers.setContentDisposition(ContentDisposition.inline()
+                    .filename(filename, StandardCharsets.UTF_8)
+                    .build());
+        }
+
+        HttpRange range = resolveRange(requestHeaders, etag, lastModified);
+        if (range == null) {
+            headers.setContentLength(size);
+            return ResponseEntity.ok()
+                    .headers(headers)
+                    .body(body.open(0, null));
+        }
+
+        long start;
+        long end;
+        try {
+            start = range.getRangeStart(size);
+            end = range.getRangeEnd(size);
+        } catch (IllegalArgumentException e) {
+            return rangeNotSatisfiable(size);
+        }
+        // HttpRange не проверяет начало за концом объекта: "bytes=2000-" для 1000 байт дает 2000-999
+        if (start >= size || start > end) {
+            return rangeNotSatisfiable(size);
+        }
+
+        long length = end - start + 1;
+        headers.setContentLength(length);
+        headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                .headers(headers)
+                .body(body.open(start, length));
+    }
+
+    private ResponseEntity<StreamingResponseBody> rangeNotSatisfiable(long size) {
+        return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                .header(HttpHeaders.CONTENT_RANGE, "bytes */" + size)
+                .build();
+    }
+
+    /**
+     * Источник тела ответа для диапазона (length == null - до конца объекта)
+     */
+    private interface BodySource {
+        StreamingResponseBody open(long offset, Long length);
+    }
+
+    private StreamingResponseBody stream(String storageKey, long offset, Long length, String etag) {
+        return outputStream -> {
+            try (InputStream inputStream = mediaStorageService.getFileStream(storageKey, offset, length, etag)) {
+                inputStream.transferTo(outputStream);
+            }
+        };
+    }
+
+    /**
+     * Разбор Range с учетом If-Range. null - отдаем объект целиком
+     * (нет заголовка, несколько диапазонов, некорректный синтаксис или If-Range не совпал)
+     */
+    private HttpRange resolveRange(HttpHeaders requestHeaders, String etag, ZonedDateTime lastModified) {
+        String rangeHeader = requestHeaders.getFirst(HttpHeaders.RANGE);
+        if (rangeHeader == null) {
+            return null;
+        }
+
+        String ifRange = requestHeaders.getFirst(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRangeMatches(ifRange.trim(), etag, lastModified)) {
+            return null;
+        }
+
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            log.debug("Ignoring malformed Range header: {}", rangeHeader);
+            return null;
+        }
+    }
+
+    private boolean ifRangeMatches(String ifRange, String etag, ZonedDateTime lastModified) {
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // Для If-Range допустимо только строгое сравнение ETag
+            return ifRange.equals("\"" + etag + "\"");
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return date.toEpochSecond() == lastModified.toEpochSecond();
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private MediaType parseContentType(String contentType) {
+        try {
+            return contentType != null ? MediaType.parseMediaType(contentType) : MediaType.APPLICATION_OCTET_STREAM;
+        } catch (InvalidMediaTypeException e) {
+            return MediaType.APPLICATION_OCTET_STREAM;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.ithub.mediastorageservice.service;
 
+import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import org.ithub.mediastorageservice.dto.MediaFileDTO;
 import org.ithub.mediastorageservice.dto.MediaMetadataDTO;
@@ -13,8 +14,10 @@ public class MediaFileMetadataService {
     private final MediaTagService mediaTagService;
 
     /**
-     * Обновление метаданных медиа-файла
+     * Обновление метаданных медиа-файла.
+     * Добавление и удаление тегов - по одному запросу, всё в одной транзакции
      */
+    @Transactional
     public MediaFileDTO updateMetadata(Long mediaId, MediaMetadataDTO metadata) {
         MediaFile mediaFile = mediaFileService.getMediaFile(mediaId);
 
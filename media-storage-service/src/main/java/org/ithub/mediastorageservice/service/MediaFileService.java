@@ -1,38 +1,76 @@
 package org.ithub.mediastorageservice.service;
 
+import io.minio.StatObjectResponse;
 import jakarta.persistence.EntityNotFoundException;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.ithub.mediastorageservice.config.UploadConfig;
 import org.ithub.mediastorageservice.dto.MediaFileDTO;
+import org.ithub.mediastorageservice.dto.PresignedUploadDTO;
 import org.ithub.mediastorageservice.enums.MediaStatus;
 import org.ithub.mediastorageservice.enums.MediaType;
+import org.ithub.mediastorageservice.exception.ProcessingQueueFullException;
+import org.ithub.mediastorageservice.model.MediaBlob;
 import org.ithub.mediastorageservice.model.MediaFile;
 import org.ithub.mediastorageservice.repository.MediaFileRepository;
-import org.springframework.core.io.ByteArrayResource;
-import org.springframework.core.io.Resource;
+import org.ithub.mediastorageservice.repository.MediaFileRepository.HashCount;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.ithub.mediastorageservice.util.ImageHeaderProbe;
+import org.ithub.mediastorageservice.util.ImageProbeResult;
 import org.ithub.mediastorageservice.util.MediaFileMapper;
+import org.ithub.mediastorageservice.util.MediaSpool;
+import org.ithub.mediastorageservice.util.MediaSpool.SpooledFile;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class MediaFileService {
+    // Сколько байт начала объекта читается для разбора заголовка изображения
+    private static final long HEADER_PROBE_BYTES = 256 * 1024;
+    // Незавершенные прямые загрузки и удаленные файлы в выдачу не попадают
+    private static final Set<MediaStatus> HIDDEN_STATUSES = EnumSet.of(MediaStatus.UPLOADING, MediaStatus.DELETED);
+
     private final MediaFileRepository mediaFileRepository;
     private final MediaStorageService mediaStorageService;
     private final MediaTagService mediaTagService;
     private final MediaVariantService mediaVariantService;
     private final MediaAlbumService mediaAlbumService;
+    private final MediaProcessingService mediaProcessingService;
     private final MediaFileMapper fileMapper;
+    private final ImageHeaderProbe imageHeaderProbe;
+    private final MediaSpool mediaSpool;
+    private final MediaDeliveryService mediaDeliveryService;
+    private final MediaTagIndex mediaTagIndex;
+    private final MediaBlobService mediaBlobService;
+    private final UploadConfig uploadConfig;
 
     /**
      * Сохранение медиа-файла
@@ -45,7 +83,7 @@ public class MediaFileService {
      * Получение медиа-файла
      */
     public MediaFile getMediaFile(Long id) {
-        return mediaFileRepository.findById(id)
+        return mediaFileRepository.findByIdAndStatusNotIn(id, HIDDEN_STATUSES)
                 .orElseThrow(() -> new EntityNotFoundException("MediaFile not found with id: " + id));
     }
 
@@ -63,117 +101,465 @@ public class MediaFileService {
         String contentType = file.getContentType();
         MediaType mediaType = determineMediaType(contentType);
 
-        String storageKey = mediaStorageService.uploadFile(file);
+        // Не принимаем изображение, если очередь обработки уже заполнена
+        if (mediaType == MediaType.IMAGE) {
+            mediaProcessingService.ensureCapacity();
+        }
+
+        // Загрузка целиком уходит во временный файл: по пути считается SHA-256 для дедупликации,
+        // из него же идет загрузка в MinIO и обработка изображения без повторного чтения из хранилища
+        SpooledFile spooled = mediaSpool.spool(file);
+        try {
+            return createMediaFile(file.getOriginalFilename(), file.getSize(), contentType, mediaType,
+                    description, tags, spooled);
+        } catch (RuntimeException | IOException e) {
+            mediaSpool.release(spooled);
+            throw e;
+        }
+    }
+
+    /**
+     * Создание медиа-файла из уже собранного на диске временного файла (возобновляемая загрузка).
+     * Временный файл переходит во владение сервиса и удаляется после загрузки или обработки
+     */
+    public MediaFile createMediaFileFromSpool(SpooledFile spooled, String originalFilename, String contentType,
+                                              String description, Set<String> tags) throws IOException {
+        MediaType mediaType = determineMediaType(contentType);
+        if (mediaType == MediaType.IMAGE) {
+            mediaProcessingService.ensureCapacity();
+        }
+
+        try {
+            return createMediaFile(originalFilename, Files.size(spooled.path()), contentType, mediaType,
+                    description, tags, spooled);
+        } catch (RuntimeException | IOException e) {
+            mediaSpool.release(spooled);
+            throw e;
+        }
+    }
+
+    private MediaFile createMediaFile(String originalFilename, long size, String contentType, MediaType mediaType,
+                                      String description, Set<String> tags, SpooledFile spooled) throws IOException {
+        String contentHash = spooled.sha256();
+
+        // Такое содержимое уже хранится - объект переиспользуется, новый не загружается
+        Optional<MediaBlob> existing = mediaBlobService.acquire(contentHash);
+        String storageKey;
+        if (existing.isPresent()) {
+            storageKey = existing.get().getStorageKey();
+        } else {
+            String uploadedKey = mediaStorageService.uploadFile(spooled.path(), originalFilename, contentType);
+            storageKey = registerBlob(contentHash, uploadedKey, size);
+        }
+
+        MediaFile savedMediaFile = saveUploadedFile(originalFilename, size, contentType, mediaType,
+                storageKey, contentHash, description, tags, probeHeader(mediaType, storageKey, spooled.path()));
+
+        if (mediaType != MediaType.IMAGE) {
+            mediaSpool.release(spooled);
+        } else if (existing.isPresent() && copyVariantsFromDuplicate(savedMediaFile)) {
+            // Варианты того же содержимого уже есть - обработка не нужна
+            mediaSpool.release(spooled);
+        } else {
+            // Ставим генерацию вариантов в фоновую очередь
+            submitUploaded(savedMediaFile, spooled.path());
+        }
+
+        return savedMediaFile;
+    }
+
+    /**
+     * Создание медиа-файла из тела запроса без multipart-буфера сервлета: поток сразу режется на части
+     * и уходит в MinIO, хэш считается по пути. Дедупликация выполняется после загрузки -
+     * если такое содержимое уже есть, только что загруженный объект удаляется
+     */
+    public MediaFile createMediaFileFromStream(InputStream body, String originalFilename, String contentType,
+                                               String description, Set<String> tags) throws IOException {
+        MediaType mediaType = determineMediaType(contentType);
+        if (mediaType == MediaType.IMAGE) {
+            mediaProcessingService.ensureCapacity();
+        }
+
+        MessageDigest digest = MediaSpool.newSha256();
+        String uploadedKey = mediaStorageService.uploadStream(new DigestInputStream(body, digest), originalFilename, contentType);
+        String contentHash = HexFormat.of().formatHex(digest.digest());
+        long size = mediaStorageService.statFile(uploadedKey).size();
+
+        Optional<MediaBlob> existing = mediaBlobService.acquire(contentHash);
+        String storageKey;
+        if (existing.isPresent()) {
+            discardDuplicate(uploadedKey);
+            storageKey = existing.get().getStorageKey();
+        } else {
+            storageKey = registerBlob(contentHash, uploadedKey, size);
+        }
+
+        MediaFile savedMediaFile = saveUploadedFile(originalFilename, size, contentType, mediaType,
+                storageKey, contentHash, description, tags, probeHeader(mediaType, storageKey, null));
+
+        // Локальной копии нет: обработка читает оригинал из хранилища
+        if (mediaType == MediaType.IMAGE && !(existing.isPresent() && copyVariantsFromDuplicate(savedMediaFile))) {
+            submitUploaded(savedMediaFile, null);
+        }
+        return savedMediaFile;
+    }
+
+    /**
+     * Первый шаг прямой загрузки: строка файла в статусе UPLOADING с заранее выбранным ключом объекта.
+     * Сам объект клиент загружает в MinIO по presigned-ссылке, сервис байты не получает
+     */
+    public PresignedUploadDTO createPresignedUpload(String originalFilename, String contentType, Long size,
+                                                    String description, Set<String> tags) {
+        long maxSize = uploadConfig.getMaxSessionSize().toBytes();
+        if (size != null && (size < 0 || size > maxSize)) {
+            throw new IllegalArgumentException("Upload size must be from 0 to " + maxSize);
+        }
+
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setOriginalFilename(originalFilename);
+        mediaFile.setSize(size != null ? size : 0L);
+        mediaFile.setStorageKey(mediaStorageService.newStorageKey(originalFilename));
+        mediaFile.setMediaType(determineMediaType(contentType));
+        mediaFile.setMimeType(contentType);
+        mediaFile.setStatus(MediaStatus.UPLOADING);
+        mediaFile.setUploadedBy("currentUser");
+        if (description != null && !description.isEmpty()) {
+            mediaFile.setMetadata(description);
+        }
+        // Теги попадут в таблицу тегов и индекс только при завершении загрузки
+        if (tags != null && !tags.isEmpty()) {
+            mediaFile.setPendingTags(String.join("\n", tags));
+        }
+
+        MediaFile savedMediaFile = mediaFileRepository.save(mediaFile);
+
+        Duration expiry = uploadConfig.getPresignedUploadExpiry();
+        String uploadUrl = mediaStorageService.getPresignedUploadUrl(savedMediaFile.getStorageKey(), (int) expiry.toMinutes());
+        return new PresignedUploadDTO(savedMediaFile.getId(), uploadUrl, "PUT", LocalDateTime.now().plus(expiry));
+    }
+
+    /**
+     * Второй шаг прямой загрузки: проверка объекта в хранилище, чтение заголовка изображения
+     * ranged-запросом и постановка генерации вариантов. Повторный вызов возвращает файл без изменений.
+     * Хэш содержимого не считается (это потребовало бы прочитать весь объект), поэтому файл
+     * владеет своим объектом единолично и не участвует в дедупликации
+     */
+    public MediaFile finalizeUpload(Long id) {
+        long maxSize = uploadConfig.getMaxSessionSize().toBytes();
+        MediaFile mediaFile = mediaFileRepository.findByIdAndStatusNot(id, MediaStatus.DELETED)
+                .orElseThrow(() -> new EntityNotFoundException("MediaFile not found with id: " + id));
+        if (mediaFile.getStatus() != MediaStatus.UPLOADING) {
+            return mediaFile;
+        }
+
+        StatObjectResponse stat = mediaStorageService.findFile(mediaFile.getStorageKey())
+                .orElseThrow(() -> new IllegalStateException("Object for media " + id + " has not been uploaded yet"));
+        if (stat.size() > maxSize) {
+            deleteMediaFiles(List.of(id));
+            throw new IllegalArgumentException("Uploaded object exceeds " + maxSize + " bytes, media " + id + " discarded");
+        }
+
+        boolean image = mediaFile.getMediaType() == MediaType.IMAGE;
+        if (image) {
+            mediaProcessingService.ensureCapacity();
+            try (InputStream header = mediaStorageService.getFileStream(mediaFile.getStorageKey(), 0,
+                    Math.min(HEADER_PROBE_BYTES, stat.size()), stat.etag())) {
+                imageHeaderProbe.probe(header).ifPresent(probe -> {
+                    mediaFile.setWidth(probe.getWidth());
+                    mediaFile.setHeight(probe.getHeight());
+                    mediaFile.setOrientation(probe.getOrientation());
+                    mediaFile.setColorModel(probe.getColorModel());
+                });
+            } catch (IOException e) {
+                log.warn("Could not probe image header of media {}: {}", id, e.getMessage());
+            }
+        }
+
+        MediaStatus status = image ? MediaStatus.PROCESSING : MediaStatus.READY;
+        int updated = mediaFileRepository.completeUpload(id, status, stat.size(), mediaFile.getWidth(),
+                mediaFile.getHeight(), mediaFile.getOrientation(), mediaFile.getColorModel(), LocalDateTime.now());
+        if (updated == 0) {
+            // Параллельный вызов уже завершил загрузку
+            return getMediaFile(id);
+        }
+
+        mediaFile.setStatus(status);
+        mediaFile.setSize(stat.size());
+        mediaTagIndex.addFile(id, mediaFile.getMediaType());
+        if (mediaFile.getPendingTags() != null) {
+            mediaTagService.addTagsToFile(mediaFile, Set.of(mediaFile.getPendingTags().split("\n")));
+            mediaFile.setPendingTags(null);
+        }
+        if (image) {
+            submitUploaded(mediaFile, null);
+        }
+        log.info("Direct upload of media {} finalized, size: {}", id, stat.size());
+        return mediaFile;
+    }
+
+    /**
+     * Постановка обработки только что загруженного файла. Если очередь заполнилась после проверки,
+     * загрузка откатывается: строка помечается удаленной, а ссылку на объект снимет очистка
+     */
+    private void submitUploaded(MediaFile mediaFile, Path source) {
+        try {
+            mediaProcessingService.submit(mediaFile, source);
+        } catch (ProcessingQueueFullException e) {
+            deleteMediaFiles(List.of(mediaFile.getId()));
+            throw e;
+        }
+    }
+
+    /**
+     * Пометка брошенных прямых загрузок на удаление (объект, если он успел появиться, удалит очистка)
+     * @return количество помеченных файлов
+     */
+    public int expireAbandonedUploads(LocalDateTime createdBefore, int batchSize) {
+        List<Long> ids = mediaFileRepository.findAbandonedUploadIds(createdBefore, Limit.of(batchSize));
+        return ids.isEmpty() ? 0 : deleteMediaFiles(ids);
+    }
 
+    /**
+     * Размеры изображения из заголовка - из локальной копии, если она есть, иначе из начала объекта.
+     * Ошибка чтения заголовка не прерывает загрузку: ссылка на объект уже взята, а размеры необязательны
+     */
+    private Optional<ImageProbeResult> probeHeader(MediaType mediaType, String storageKey, Path local) {
+        if (mediaType != MediaType.IMAGE) {
+            return Optional.empty();
+        }
+        try (InputStream header = local != null
+                ? Files.newInputStream(local)
+                : mediaStorageService.getFileStream(storageKey, 0, HEADER_PROBE_BYTES, null)) {
+            return imageHeaderProbe.probe(header);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not probe image header of {}: {}", storageKey, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Создание строки медиа-файла для уже сохраненного объекта: заголовок изображения, теги, индекс
+     */
+    private MediaFile saveUploadedFile(String originalFilename, long size, String contentType, MediaType mediaType,
+                                       String storageKey, String contentHash, String description, Set<String> tags,
+                                       Optional<ImageProbeResult> headerProbe) {
         MediaFile mediaFile = new MediaFile();
-        mediaFile.setOriginalFilename(file.getOriginalFilename());
-        mediaFile.setSize(file.getSize());
+        mediaFile.setOriginalFilename(originalFilename);
+        mediaFile.setSize(size);
         mediaFile.setStorageKey(storageKey);
+        mediaFile.setContentHash(contentHash);
         mediaFile.setMediaType(mediaType);
         mediaFile.setMimeType(contentType);
-        mediaFile.setStatus(MediaStatus.PROCESSING);
+        mediaFile.setStatus(mediaType == MediaType.IMAGE ? MediaStatus.PROCESSING : MediaStatus.READY);
         mediaFile.setUploadedBy("currentUser"); // тут потом надо настроить, чтобы получать данные из контекста безопасности
 
-        // Для изображений извлекаем размеры
-        if (mediaType == MediaType.IMAGE) {
-            try (InputStream is = file.getInputStream()) {
-                BufferedImage bufferedImage = ImageIO.read(is);
-                if (bufferedImage != null) {
-                    mediaFile.setWidth(bufferedImage.getWidth());
-                    mediaFile.setHeight(bufferedImage.getHeight());
-                }
-            }
-        }
+        // Для изображений размеры прочитаны из заголовка, без декодирования пикселей
+        headerProbe.ifPresent(probe -> {
+            mediaFile.setWidth(probe.getWidth());
+            mediaFile.setHeight(probe.getHeight());
+            mediaFile.setOrientation(probe.getOrientation());
+            mediaFile.setColorModel(probe.getColorModel());
+        });
 
         // Устанавливаем метаданные
         if (description != null && !description.isEmpty()) {
             mediaFile.setMetadata(description);
         }
 
-        // Сохраняем файл в БД
-        MediaFile savedMediaFile = mediaFileRepository.save(mediaFile);
+        // Сохраняем файл в БД; при ошибке ссылка на объект снимается
+        MediaFile savedMediaFile;
+        try {
+            savedMediaFile = mediaFileRepository.save(mediaFile);
+        } catch (RuntimeException e) {
+            releaseBlob(contentHash);
+            throw e;
+        }
+        mediaTagIndex.addFile(savedMediaFile.getId(), mediaType);
 
         // Добавляем теги
         if (tags != null && !tags.isEmpty()) {
             mediaTagService.addTagsToFile(savedMediaFile, tags);
         }
+        return savedMediaFile;
+    }
 
-        // Надо сделать метод асинхронным (запускаем создание вариантов)
-        if (mediaType == MediaType.IMAGE) {
-            mediaVariantService.processImageVariants(savedMediaFile);
+    /**
+     * Регистрация хэша только что загруженного объекта
+     * @return ключ объекта, на который будет ссылаться файл
+     */
+    private String registerBlob(String contentHash, String storageKey, long size) {
+        if (mediaBlobService.register(contentHash, storageKey, size).isPresent()) {
+            return storageKey;
         }
 
-        return savedMediaFile;
+        // Такое же содержимое параллельно загрузил другой запрос: берем его объект, свой удаляем
+        Optional<MediaBlob> winner = mediaBlobService.acquire(contentHash);
+        if (winner.isPresent()) {
+            discardDuplicate(storageKey);
+            return winner.get().getStorageKey();
+        }
+        return mediaBlobService.register(contentHash, storageKey, size)
+                .orElseThrow(() -> new IllegalStateException("Could not register content " + contentHash))
+                .getStorageKey();
     }
 
     /**
-     * Удаление медиа-файла
+     * Удаление лишней копии уже хранящегося содержимого. Ссылка на общий объект к этому моменту взята,
+     * поэтому ошибка не прерывает загрузку: неудаленный объект уберет сверка хранилища как "сироту"
      */
-    @Transactional
-    public void deleteMediaFile(Long id) {
-        MediaFile mediaFile = getMediaFile(id);
+    private void discardDuplicate(String storageKey) {
+        try {
+            mediaStorageService.deleteFile(storageKey);
+        } catch (RuntimeException e) {
+            log.warn("Could not delete duplicate object {}, left for reconciliation: {}", storageKey, e.getMessage());
+        }
+    }
 
-        // Удаляем оригинальный файл из хранилища
-        mediaStorageService.deleteFile(mediaFile.getStorageKey());
+    /**
+     * Копирование вариантов от готового файла с тем же объектом
+     * @return true, если варианты скопированы и файл готов
+     */
+    private boolean copyVariantsFromDuplicate(MediaFile mediaFile) {
+        Optional<MediaFile> donor = mediaFileRepository.findFirstByStorageKeyAndStatusAndIdNotOrderByIdAsc(
+                mediaFile.getStorageKey(), MediaStatus.READY, mediaFile.getId());
+        if (donor.isEmpty() || mediaVariantService.copyVariants(donor.get().getId(), mediaFile) == 0) {
+            return false;
+        }
+        mediaFileRepository.updateStatus(mediaFile.getId(), MediaStatus.READY);
+        mediaFile.setStatus(MediaStatus.READY);
+        log.info("Reused variants of media {} for duplicate upload {}", donor.get().getId(), mediaFile.getId());
+        return true;
+    }
 
-        // Удаляем все варианты
-        mediaVariantService.deleteVariantsByMediaFileId(id);
+    /**
+     * Снятие одной ссылки на содержимое; объект удаляется, если ссылок не осталось
+     */
+    private void releaseBlob(String contentHash) {
+        List<String> reclaimed = mediaBlobService.release(Map.of(contentHash, 1L));
+        if (!reclaimed.isEmpty()) {
+            mediaStorageService.deleteFiles(reclaimed);
+        }
+    }
 
-        // Удаляем все теги
-        mediaTagService.deleteAllTagsByMediaFileId(id);
+    /**
+     * Повторная генерация вариантов (оригинал читается из хранилища)
+     */
+    public MediaFile reprocessMediaFile(Long id) {
+        MediaFile mediaFile = getMediaFile(id);
+        if (mediaFile.getMediaType() != MediaType.IMAGE) {
+            throw new IllegalArgumentException("Only images have variants, media id: " + id);
+        }
 
-        // Удаляем файл из всех альбомов (без удаления самих альбомов)
-        mediaAlbumService.removeFileFromAllAlbums(mediaFile);
+        mediaProcessingService.ensureCapacity();
+        mediaProcessingService.submit(mediaFile);
+        mediaFile.setStatus(MediaStatus.PROCESSING);
+        return mediaFile;
+    }
 
-        // Удаляем запись из БД
-        mediaFileRepository.delete(mediaFile);
+    /**
+     * Удаление медиа-файла: файл помечается DELETED и сразу пропадает из выдачи,
+     * объекты в хранилище и связанные строки удаляет MediaPurgeService
+     */
+    public void deleteMediaFile(Long id) {
+        getMediaFile(id);
+        deleteMediaFiles(List.of(id));
     }
 
     /**
-     * Получение содержимого файла
+     * Пометка набора файлов на удаление одним запросом
+     * @return количество помеченных файлов (уже удаленные и несуществующие id пропускаются)
      */
-    public Resource getMediaContent(Long mediaId) {
-        MediaFile mediaFile = getMediaFile(mediaId);
+    public int deleteMediaFiles(Collection<Long> ids) {
+        int marked = mediaFileRepository.markDeleted(ids, LocalDateTime.now());
+        mediaTagIndex.removeFiles(ids);
+        return marked;
+    }
 
-        // Получаем файл из хранилища
-        byte[] content = mediaStorageService.getFile(mediaFile.getStorageKey());
+    /**
+     * Окончательное удаление строк помеченных файлов. Каждая таблица очищается одним запросом
+     * @return ключи общих объектов, на которые не осталось ссылок
+     */
+    @Transactional
+    public List<String> purgeDeletedFiles(Collection<Long> ids) {
+        Map<String, Long> references = mediaFileRepository.countByContentHash(ids).stream()
+                .collect(Collectors.toMap(HashCount::getContentHash, HashCount::getFileCount));
+
+        mediaProcessingService.deleteJobs(ids);
+        mediaVariantService.deleteVariantRowsByMediaFileIds(ids);
+        mediaTagService.deleteAllTagsByMediaFileIds(ids);
+        mediaAlbumService.removeFilesFromAllAlbums(ids);
+        mediaFileRepository.deleteMarked(ids);
+
+        // Объекты, на которые больше не ссылается ни один файл, можно удалять из хранилища
+        return mediaBlobService.release(references);
+    }
 
-        // Создаем ресурс для возврата
-        return new ByteArrayResource(content);
+    /**
+     * Получение содержимого файла (потоково, с поддержкой Range)
+     */
+    public ResponseEntity<StreamingResponseBody> getMediaContent(Long mediaId, HttpHeaders requestHeaders) {
+        MediaFile mediaFile = getMediaFile(mediaId);
+        return mediaDeliveryService.deliver(mediaFile.getStorageKey(), mediaFile.getOriginalFilename(),
+                mediaFile.getMimeType(), mediaFile.getMediaType(), mediaFile.getSize(), false, requestHeaders);
     }
 
     /**
-     * Поиск медиа-файлов по тегам и типу
+     * Поиск медиа-файлов по тегам и типу.
+     * matchAll=false - файлы с любым из тегов, true - со всеми тегами
      */
-    public Page<MediaFileDTO> findByTagsAndType(Set<String> tags, MediaType mediaType, Pageable pageable) {
+    public Page<MediaFileDTO> findByTagsAndType(Set<String> tags, boolean matchAll, MediaType mediaType, Pageable pageable) {
+        // Поиск по тегам сначала идет через битмап-индекс, из БД читается только страница
+        Optional<MediaTagIndex.IndexPage> indexPage = mediaTagIndex.search(tags, matchAll, mediaType, pageable);
+        if (indexPage.isPresent()) {
+            return fileMapper.convertPage(hydrate(indexPage.get(), pageable));
+        }
+
         Page<MediaFile> mediaFiles;
 
         if ((tags == null || tags.isEmpty()) && mediaType == null) {
-            mediaFiles = mediaFileRepository.findAll(pageable);
+            mediaFiles = mediaFileRepository.findByStatusNotIn(HIDDEN_STATUSES, pageable);
         } else if (tags == null || tags.isEmpty()) {
-            mediaFiles = mediaFileRepository.findByMediaType(mediaType, pageable);
-        } else if (mediaType == null) {
-            mediaFiles = mediaFileRepository.findByTagsIn(tags, pageable);
+            mediaFiles = mediaFileRepository.findByMediaTypeAndStatusNotIn(mediaType, HIDDEN_STATUSES, pageable);
         } else {
-            mediaFiles = mediaFileRepository.findByTagsInAndMediaType(tags, mediaType, pageable);
+            // Имена переводятся в id словаря, дальше поиск идет только по целочисленной таблице связей
+            Collection<Integer> tagIds = mediaTagService.resolveTagIds(tags).values();
+            if (tagIds.isEmpty() || (matchAll && tagIds.size() < tags.size())) {
+                return Page.empty(pageable);
+            }
+
+            if (mediaType == null) {
+                mediaFiles = matchAll
+                        ? mediaFileRepository.findByAllTagIds(tagIds, tagIds.size(), pageable)
+                        : mediaFileRepository.findByAnyTagIds(tagIds, pageable);
+            } else {
+                mediaFiles = matchAll
+                        ? mediaFileRepository.findByAllTagIdsAndMediaType(tagIds, tagIds.size(), mediaType, pageable)
+                        : mediaFileRepository.findByAnyTagIdsAndMediaType(tagIds, mediaType, pageable);
+            }
         }
 
-        return mediaFiles.map(fileMapper::convertToDTO);
+        return fileMapper.convertPage(mediaFiles);
     }
 
     /**
      * Поиск медиа-файлов по тегам
      */
-    public Page<MediaFileDTO> findByTags(Set<String> tags, Pageable pageable) {
-        Page<MediaFile> mediaFiles;
-
-        if (tags == null || tags.isEmpty()) {
-            mediaFiles = mediaFileRepository.findAll(pageable);
-        } else {
-            mediaFiles = mediaFileRepository.findByTagsIn(tags, pageable);
-        }
+    public Page<MediaFileDTO> findByTags(Set<String> tags, boolean matchAll, Pageable pageable) {
+        return findByTagsAndType(tags, matchAll, null, pageable);
+    }
 
-        return mediaFiles.map(fileMapper::convertToDTO);
+    /**
+     * Загрузка страницы файлов по id из индекса с сохранением порядка выдачи
+     */
+    private Page<MediaFile> hydrate(MediaTagIndex.IndexPage indexPage, Pageable pageable) {
+        Map<Long, MediaFile> byId = mediaFileRepository.findAllById(indexPage.ids()).stream()
+                .collect(Collectors.toMap(MediaFile::getId, Function.identity()));
+        List<MediaFile> content = indexPage.ids().stream()
+                .map(byId::get)
+                .filter(Objects::nonNull)
+                .filter(file -> !HIDDEN_STATUSES.contains(file.getStatus()))
+                .toList();
+        return new PageImpl<>(content, pageable, indexPage.total());
     }
 
     public MediaFileDTO convertToDTO(MediaFile mediaFile) {
@@ -0,0 +1,300 @@
+package org.ithub.mediastorageservice.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.ithub.mediastorageservice.config.ObjectCacheConfig;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Локальный кэш часто запрашиваемых объектов (варианты) перед MinIO: уровень в памяти для миниатюр
+ * и дисковый уровень с ограничением по размеру. Оба уровня - LRU по байтам.
+ * С диска содержимое отдается через FileChannel.transferTo без промежуточных массивов в куче
+ */
+@Slf4j
+@Service
+public class MediaObjectCache {
+    // Подкаталог с записями внутри настроенного каталога и файл, отмечающий его как принадлежащий кэшу
+    private static final String ENTRIES_DIRECTORY = "entries";
+    private static final String MARKER_FILE = ".media-object-cache";
+
+    private final ObjectCacheConfig config;
+    private final Path directory;
+
+    private final LinkedHashMap<String, CachedObject> heapEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, CachedObject> diskEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long heapBytes;
+    private long diskBytes;
+    // Увеличивается при каждой инвалидации: загрузка, начатая до нее, в кэш не попадает
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Counter heapHits;
+    private final Counter diskHits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public MediaObjectCache(ObjectCacheConfig config, MeterRegistry meterRegistry) throws IOException {
+        this.config = config;
+        this.directory = Path.of(config.getDirectory()).resolve(ENTRIES_DIRECTORY);
+        if (config.isEnabled()) {
+            prepareDirectory();
+        }
+
+        this.heapHits = meterRegistry.counter("media.object_cache", "result", "hit", "tier", "heap");
+        this.diskHits = meterRegistry.counter("media.object_cache", "result", "hit", "tier", "disk");
+        this.misses = meterRegistry.counter("media.object_cache", "result", "miss", "tier", "none");
+        this.evictions = meterRegistry.counter("media.object_cache.evictions");
+        Gauge.builder("media.object_cache.hit_ratio", this, MediaObjectCache::hitRatio)
+                .register(meterRegistry);
+        Gauge.builder("media.object_cache.size", this, cache -> cache.bytes(true))
+                .tag("tier", "heap")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("media.object_cache.size", this, cache -> cache.bytes(false))
+                .tag("tier", "disk")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Закэшированный объект: метаданные из stat, содержимое в памяти или в файле и время последней сверки ETag
+     */
+    public record CachedObject(long size, String etag, ZonedDateTime lastModified, String contentType,
+                               byte[] data, Path path, long validatedAt) {
+        CachedObject withValidatedAt(long validatedAt) {
+            return new CachedObject(size, etag, lastModified, contentType, data, path, validatedAt);
+        }
+
+        /**
+         * Открытие файла записи до начала отдачи: открытый файл читается и после вытеснения записи
+         * (на POSIX удаление не мешает уже открытому дескриптору). Пустой результат - запись уже вытеснена
+         */
+        public Optional<FileChannel> open() {
+            try {
+                return Optional.of(FileChannel.open(path, StandardOpenOption.READ));
+            } catch (IOException e) {
+                return Optional.empty();
+            }
+        }
+
+        /**
+         * Запись диапазона из памяти или из открытого файла в поток ответа
+         */
+        public void transferTo(FileChannel channel, OutputStream outputStream, long offset, long length) throws IOException {
+            if (data != null) {
+                outputStream.write(data, (int) offset, (int) length);
+                return;
+            }
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                position += channel.transferTo(position, end - position, target);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    /**
+     * Поместится ли объект такого размера в кэш
+     */
+    public boolean accepts(long size) {
+        return config.isEnabled() && size <= config.getMaxEntrySize().toBytes();
+    }
+
+    public Optional<CachedObject> get(String key) {
+        synchronized (this) {
+            CachedObject cached = heapEntries.get(key);
+            if (cached != null) {
+                heapHits.increment();
+                return Optional.of(cached);
+            }
+            cached = diskEntries.get(key);
+            if (cached != null) {
+                diskHits.increment();
+                return Optional.of(cached);
+            }
+        }
+        misses.increment();
+        return Optional.empty();
+    }
+
+    /**
+     * Запись проверялась по ETag дольше revalidateAfter назад
+     */
+    public boolean needsRevalidation(CachedObject cached) {
+        return System.currentTimeMillis() - cached.validatedAt() > config.getRevalidateAfter().toMillis();
+    }
+
+    /**
+     * Продление записи после того, как ETag в хранилище совпал с закэшированным
+     */
+    public synchronized CachedObject revalidated(String key, CachedObject cached) {
+        CachedObject renewed = cached.withValidatedAt(System.currentTimeMillis());
+        Map<String, CachedObject> entries = cached.data() != null ? heapEntries : diskEntries;
+        // Запись могла быть вытеснена или заменена, пока шла проверка
+        if (entries.get(key) == cached) {
+            entries.put(key, renewed);
+        }
+        return renewed;
+    }
+
+    /**
+     * Текущее поколение кэша; передается в put, чтобы не закэшировать объект, перезаписанный во время загрузки
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Сохранение содержимого объекта, прочитанного из хранилища
+     * @return запись кэша или пустой результат, если объект был инвалидирован во время чтения
+     */
+    public Optional<CachedObject> put(String key, InputStream content, long size, String etag, ZonedDateTime lastModified,
+                                      String contentType, long loadGeneration) throws IOException {
+        if (size <= config.getHeapMaxEntrySize().toBytes()) {
+            byte[] data = content.readAllBytes();
+            CachedObject cached = new CachedObject(data.length, etag, lastModified, contentType, data, null,
+                    System.currentTimeMillis());
+            synchronized (this) {
+                if (generation.get() != loadGeneration) {
+                    return Optional.empty();
+                }
+                CachedObject previous = heapEntries.put(key, cached);
+                heapBytes += cached.size() - (previous != null ? previous.size() : 0);
+                evictHeap();
+            }
+            return Optional.of(cached);
+        }
+
+        // Содержимое пишется во временный файл и атомарно переименовывается: читатели не видят недописанных файлов
+        Path temp = Files.createTempFile(directory, "load-", ".tmp");
+        Path target = directory.resolve(UUID.randomUUID() + ".bin");
+        try {
+            long written = Files.copy(content, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            CachedObject cached = new CachedObject(written, etag, lastModified, contentType, null, target,
+                    System.currentTimeMillis());
+            synchronized (this) {
+                if (generation.get() != loadGeneration) {
+                    deleteQuietly(target);
+                    return Optional.empty();
+                }
+                CachedObject previous = diskEntries.put(key, cached);
+                if (previous != null) {
+                    diskBytes -= previous.size();
+                    deleteQuietly(previous.path());
+                }
+                diskBytes += cached.size();
+                evictDisk();
+            }
+            return Optional.of(cached);
+        } catch (IOException e) {
+            deleteQuietly(temp);
+            deleteQuietly(target);
+            throw e;
+        }
+    }
+
+    /**
+     * Удаление объекта из обоих уровней (при перезаписи и удалении объекта в хранилище)
+     */
+    public void invalidate(String key) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        synchronized (this) {
+            generation.incrementAndGet();
+            CachedObject heap = heapEntries.remove(key);
+            if (heap != null) {
+                heapBytes -= heap.size();
+            }
+            CachedObject disk = diskEntries.remove(key);
+            if (disk != null) {
+                diskBytes -= disk.size();
+                deleteQuietly(disk.path());
+            }
+        }
+    }
+
+    /**
+     * Очистка каталога записей от прошлого запуска. Каталог без маркера кэшу не принадлежит и не удаляется
+     */
+    private void prepareDirectory() throws IOException {
+        if (Files.exists(directory)) {
+            if (!Files.exists(directory.resolve(MARKER_FILE))) {
+                throw new IllegalStateException("Object cache directory " + directory
+                        + " exists and is not owned by the cache, refusing to clear it");
+            }
+            FileSystemUtils.deleteRecursively(directory);
+        }
+        Files.createDirectories(directory);
+        Files.createFile(directory.resolve(MARKER_FILE));
+    }
+
+    private void evictHeap() {
+        long limit = config.getMaxHeapSize().toBytes();
+        Iterator<CachedObject> eldest = heapEntries.values().iterator();
+        while (heapBytes > limit && eldest.hasNext()) {
+            heapBytes -= eldest.next().size();
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    private void evictDisk() {
+        long limit = config.getMaxDiskSize().toBytes();
+        Iterator<Map.Entry<String, CachedObject>> eldest = diskEntries.entrySet().iterator();
+        while (diskBytes > limit && eldest.hasNext()) {
+            CachedObject evicted = eldest.next().getValue();
+            eldest.remove();
+            diskBytes -= evicted.size();
+            deleteQuietly(evicted.path());
+            evictions.increment();
+        }
+    }
+
+    private synchronized long bytes(boolean heap) {
+        return heap ? heapBytes : diskBytes;
+    }
+
+    private double hitRatio() {
+        double hits = heapHits.count() + diskHits.count();
+        double total = hits + misses.count();
+        return total == 0 ? 0 : hits / total;
+    }
+
+    private void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete cached object {}: {}", path, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package org.ithub.mediastorageservice.service;
+
+import io.minio.errors.ServerException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.ithub.mediastorageservice.config.ProcessingConfig;
+import org.ithub.mediastorageservice.enums.MediaStatus;
+import org.ithub.mediastorageservice.exception.ProcessingQueueFullException;
+import org.ithub.mediastorageservice.model.MediaFile;
+import org.ithub.mediastorageservice.model.MediaProcessingJob;
+import org.ithub.mediastorageservice.repository.MediaFileRepository;
+import org.ithub.mediastorageservice.repository.MediaProcessingJobRepository;
+import org.ithub.mediastorageservice.util.MediaSpool;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MediaProcessingService {
+    private final MediaVariantService mediaVariantService;
+    private final MediaProcessingJobRepository jobRepository;
+    private final MediaFileRepository mediaFileRepository;
+    private final ThreadPoolTaskExecutor variantProcessingExecutor;
+    private final ProcessingConfig processingConfig;
+    private final MediaSpool mediaSpool;
+
+    /**
+     * Проверка, что очередь обработки может принять еще одну задачу
+     */
+    public void ensureCapacity() {
+        if (variantProcessingExecutor.getThreadPoolExecutor().getQueue().remainingCapacity() == 0) {
+            throw new ProcessingQueueFullException("Variant processing queue is full, retry later");
+        }
+    }
+
+    /**
+     * Повторная обработка: оригинал будет прочитан из MinIO
+     */
+    public void submit(MediaFile mediaFile) {
+        submit(mediaFile, null);
+    }
+
+    /**
+     * Постановка медиа-файла в очередь на генерацию вариантов.
+     * source - локальная копия только что загруженного оригинала, удаляется после завершения задачи.
+     * Если очередь отклонила задачу, запись о задаче и статус файла возвращаются к прежним
+     */
+    public void submit(MediaFile mediaFile, Path source) {
+        Optional<MediaProcessingJob> existing = jobRepository.findByMediaFileId(mediaFile.getId());
+        Optional<JobState> previous = existing.map(JobState::of);
+        MediaStatus previousStatus = mediaFile.getStatus();
+        MediaProcessingJob job = existing.orElseGet(MediaProcessingJob::new);
+        job.setMediaFile(mediaFile);
+        job.setStatus(MediaStatus.PROCESSING);
+        job.setAttempts(0);
+        job.setLastError(null);
+        job.setSubmittedAt(LocalDateTime.now());
+        job.setStartedAt(null);
+        job.setFinishedAt(null);
+        jobRepository.save(job);
+        mediaFileRepository.updateStatus(mediaFile.getId(), MediaStatus.PROCESSING);
+
+        try {
+            variantProcessingExecutor.execute(() -> {
+                try {
+                    runJob(mediaFile, source);
+                } finally {
+                    mediaSpool.release(source);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            mediaSpool.release(source);
+            log.warn("Variant processing queue is full, rejecting mediaId {}", mediaFile.getId());
+            if (previous.isPresent()) {
+                previous.get().applyTo(job);
+                jobRepository.save(job);
+            } else {
+                jobRepository.delete(job);
+            }
+            mediaFileRepository.updateStatus(mediaFile.getId(), previousStatus);
+            throw new ProcessingQueueFullException("Variant processing queue is full, retry later", e);
+        }
+    }
+
+    /**
+     * Состояние записи о задаче до повторной постановки
+     */
+    private record JobState(MediaStatus status, int attempts, String lastError, LocalDateTime submittedAt,
+                            LocalDateTime startedAt, LocalDateTime finishedAt) {
+        static JobState of(MediaProcessingJob job) {
+            return new JobState(job.getStatus(), job.getAttempts(), job.getLastError(), job.getSubmittedAt(),
+                    job.getStartedAt(), job.getFinishedAt());
+        }
+
+        void applyTo(MediaProcessingJob job) {
+            job.setStatus(status);
+            job.setAttempts(attempts);
+            job.setLastError(lastError);
+            job.setSubmittedAt(submittedAt);
+            job.setStartedAt(startedAt);
+            job.setFinishedAt(finishedAt);
+        }
+    }
+
+    /**
+     * Выполнение задачи с повторами при временных сбоях хранилища
+     */
+    private void runJob(MediaFile mediaFile, Path source) {
+        Long mediaId = mediaFile.getId();
+        jobRepository.findByMediaFileId(mediaId).ifPresent(job -> {
+            job.setStartedAt(LocalDateTime.now());
+            jobRepository.save(job);
+        });
+
+        Outcome outcome = runWithRetries(mediaId, () -> mediaVariantService.processImageVariants(mediaFile, source));
+        if (outcome.error() == null) {
+            finish(mediaId, MediaStatus.READY, outcome.attempts(), null);
+            log.info("Variants for mediaId {} processed in {} attempt(s)", mediaId, outcome.attempts());
+        } else {
+            finish(mediaId, MediaStatus.ERROR, outcome.attempts(), outcome.error());
+        }
+    }
+
+    /**
+     * Перестроение вариантов перечисленных профилей у готового файла (устаревший отпечаток профиля).
+     * Отдельный вид задачи: ни статус файла, ни запись о задаче обработки не меняются - файл продолжает
+     * отдаваться со старыми вариантами, а при заполненной очереди ничего не изменяется вовсе
+     */
+    public void submitRegeneration(MediaFile mediaFile, Set<String> profileNames) {
+        ensureCapacity();
+        try {
+            variantProcessingExecutor.execute(() -> {
+                Long mediaId = mediaFile.getId();
+                Outcome outcome = runWithRetries(mediaId, () -> mediaVariantService.replaceVariants(mediaId,
+                        mediaVariantService.buildVariants(mediaFile, profileNames)));
+                if (outcome.error() == null) {
+                    log.info("Variants {} of mediaId {} regenerated", profileNames, mediaId);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            throw new ProcessingQueueFullException("Variant processing queue is full, retry later", e);
+        }
+    }
+
+    /**
+     * Результат выполнения с повторами: число попыток и ошибка (null - успех)
+     */
+    private record Outcome(int attempts, String error) {
+    }
+
+    /**
+     * Выполнение с повторами при временных сбоях хранилища и экспоненциальной паузой
+     */
+    private Outcome runWithRetries(Long mediaId, Runnable action) {
+        long backoff = processingConfig.getRetryBackoffMs();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                action.run();
+                return new Outcome(attempt, null);
+            } catch (Exception e) {
+                boolean retry = isTransient(e) && attempt < processingConfig.getMaxAttempts();
+                log.warn("Attempt {} to process variants for mediaId {} failed (retry: {}): {}",
+                        attempt, mediaId, retry, e.getMessage());
+                if (!retry) {
+                    log.error("Error processing image variants for mediaId {}: {}", mediaId, e.getMessage(), e);
+                    return new Outcome(attempt, e.getMessage() != null ? e.getMessage() : e.toString());
+                }
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return new Outcome(attempt, "Interrupted");
+                }
+                backoff *= 2;
+            }
+        }
+    }
+
+    /**
+     * Повторная постановка задач, оставшихся в PROCESSING после перезапуска или падения экземпляра:
+     * очередь воркеров живет только в памяти. Первая проверка выполняется при старте.
+     * Задачи удаленных файлов закрываются с ошибкой, чтобы не задерживать их очистку
+     */
+    @Scheduled(fixedDelayString = "${media.processing.recovery-interval:PT5M}")
+    public void recoverStaleJobs() {
+        try {
+            LocalDateTime activeBefore = LocalDateTime.now().minus(processingConfig.getJobTimeout());
+            List<MediaProcessingJob> stale = jobRepository.findStale(activeBefore,
+                    Limit.of(Math.max(1, processingConfig.getQueueCapacity())));
+            int resubmitted = 0;
+            for (MediaProcessingJob job : stale) {
+                MediaFile mediaFile = job.getMediaFile();
+                if (mediaFile.getStatus() == MediaStatus.DELETED) {
+                    finish(mediaFile.getId(), MediaStatus.ERROR, job.getAttempts(), "Abandoned: media file deleted");
+                    continue;
+                }
+                submit(mediaFile);
+                resubmitted++;
+            }
+            if (!stale.isEmpty()) {
+                log.warn("Recovered {} stale processing jobs, {} resubmitted", stale.size(), resubmitted);
+            }
+        } catch (ProcessingQueueFullException e) {
+            // Отклоненная задача остается в PROCESSING с прежним временем постановки
+            log.info("Processing queue is full, remaining stale jobs are left for the next check");
+        } catch (Exception e) {
+            log.error("Error recovering stale processing jobs: {}", e.getMessage(), e);
+        }
+    }
+
+    private void finish(Long mediaId, MediaStatus status, int attempts, String error) {
+        jobRepository.updateResult(mediaId, status, attempts, error, LocalDateTime.now());
+        mediaFileRepository.updateStatus(mediaId, status);
+    }
+
+    /**
+     * Временными считаем сетевые ошибки, 5xx ответы MinIO и нехватку бюджета декодирования;
+     * ошибки декодирования изображения - нет
+     */
+    private boolean isTransient(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof IIOException) {
+                return false;
+            }
+            // Исчерпан бюджет декодирования - повторяем позже, как при сбое хранилища
+            if (t instanceof ServerException || t instanceof IOException || t instanceof ProcessingQueueFullException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Удаление записей о задачах обработки набора файлов
+     */
+    public void deleteJobs(Collection<Long> mediaFileIds) {
+        jobRepository.deleteByMediaFileIds(mediaFileIds);
+    }
+}
@@ -0,0 +1,140 @@
+package org.ithub.mediastorageservice.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.ithub.mediastorageservice.config.ProcessingConfig;
+import org.ithub.mediastorageservice.config.PurgeConfig;
+import org.ithub.mediastorageservice.config.UploadConfig;
+import org.ithub.mediastorageservice.repository.MediaFileRepository;
+import org.ithub.mediastorageservice.repository.MediaFileRepository.PurgeRow;
+import org.ithub.mediastorageservice.repository.MediaVariantRepository.VariantKeyRow;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Фоновая очистка файлов, помеченных DELETED: объекты удаляются из MinIO пакетами (removeObjects),
+ * строки - массовыми запросами. Транзакция БД не держится во время сетевых вызовов к хранилищу
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MediaPurgeService {
+    private final MediaFileRepository mediaFileRepository;
+    private final MediaFileService mediaFileService;
+    private final MediaVariantService mediaVariantService;
+    private final MediaStorageService mediaStorageService;
+    private final PresignedUrlCache presignedUrlCache;
+    private final PurgeConfig purgeConfig;
+    private final ProcessingConfig processingConfig;
+    private final UploadConfig uploadConfig;
+
+    @Scheduled(fixedDelayString = "${media.purge.interval:PT30S}")
+    public void purgeDeleted() {
+        try {
+            // Брошенные прямые загрузки помечаются DELETED и очищаются тем же проходом
+            int abandoned = mediaFileService.expireAbandonedUploads(
+                    LocalDateTime.now().minus(uploadConfig.getPendingUploadTimeout()), purgeConfig.getBatchSize());
+            if (abandoned > 0) {
+                log.info("Marked {} abandoned direct uploads as deleted", abandoned);
+            }
+
+            int purged = 0;
+            int batchPurged;
+            do {
+                batchPurged = purgeBatch();
+                purged += batchPurged;
+            } while (batchPurged == purgeConfig.getBatchSize());
+
+            if (purged > 0) {
+                log.info("Purged {} deleted media files", purged);
+            }
+        } catch (Exception e) {
+            log.error("Error purging deleted media files: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Очистка одной порции помеченных файлов
+     * @return количество окончательно удаленных файлов
+     */
+    private int purgeBatch() {
+        LocalDateTime deletedBefore = LocalDateTime.now().minus(purgeConfig.getGrace());
+        LocalDateTime activeBefore = LocalDateTime.now().minus(processingConfig.getJobTimeout());
+        List<PurgeRow> rows = mediaFileRepository.findPurgeRows(deletedBefore, activeBefore,
+                Limit.of(purgeConfig.getBatchSize()));
+        if (rows.isEmpty()) {
+            return 0;
+        }
+
+        // Файлы без хэша (загруженные до дедупликации) владеют своими объектами единолично:
+        // ключ объекта -> id файла-владельца, оригиналы и варианты удаляются до строк.
+        // Объекты с хэшем общие: их ключи (оригинал -> варианты) удаляются, только когда снята последняя ссылка
+        Map<String, Long> keyOwners = new HashMap<>();
+        Map<Long, String> sharedOriginals = new HashMap<>();
+        Map<String, Set<String>> sharedKeys = new HashMap<>();
+        Set<Long> ids = new LinkedHashSet<>();
+        for (PurgeRow row : rows) {
+            ids.add(row.getId());
+            if (row.getContentHash() == null) {
+                keyOwners.put(row.getStorageKey(), row.getId());
+            } else {
+                sharedOriginals.put(row.getId(), row.getStorageKey());
+                sharedKeys.computeIfAbsent(row.getStorageKey(), key -> new HashSet<>());
+            }
+        }
+        for (VariantKeyRow row : mediaVariantService.getVariantKeysByFileIds(ids)) {
+            String original = sharedOriginals.get(row.getMediaFileId());
+            if (original != null) {
+                sharedKeys.get(original).add(row.getStorageKey());
+            } else {
+                keyOwners.put(row.getStorageKey(), row.getMediaFileId());
+            }
+        }
+
+        if (!keyOwners.isEmpty()) {
+            Set<String> failed = mediaStorageService.deleteFiles(keyOwners.keySet());
+            keyOwners.keySet().forEach(presignedUrlCache::invalidate);
+
+            // Файлы, часть объектов которых не удалилась, остаются помеченными до следующего прохода
+            failed.forEach(key -> ids.remove(keyOwners.get(key)));
+        }
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        List<String> reclaimed = mediaFileService.purgeDeletedFiles(ids);
+        if (!reclaimed.isEmpty()) {
+            reclaimShared(reclaimed, sharedKeys);
+        }
+        // Порция с ошибками получается неполной, и проход завершается, не зацикливаясь на тех же файлах
+        return ids.size();
+    }
+
+    /**
+     * Удаление общих объектов, на которые больше нет ссылок, вместе с их вариантами.
+     * Строки уже удалены, поэтому неудачные ключи остаются сверке хранилища (MediaReconcileService)
+     */
+    private void reclaimShared(List<String> originals, Map<String, Set<String>> sharedKeys) {
+        Set<String> keys = new HashSet<>();
+        for (String original : originals) {
+            keys.add(original);
+            keys.addAll(sharedKeys.getOrDefault(original, Set.of()));
+            keys.addAll(mediaVariantService.getStandardVariantKeys(original));
+        }
+
+        Set<String> failed = mediaStorageService.deleteFiles(keys);
+        keys.forEach(presignedUrlCache::invalidate);
+        if (!failed.isEmpty()) {
+            log.warn("Could not delete {} unreferenced objects, left for reconciliation", failed.size());
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package org.ithub.mediastorageservice.service;
+
+import io.minio.messages.Item;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.ithub.mediastorageservice.config.ReconcileConfig;
+import org.ithub.mediastorageservice.dto.ReconcileReportDTO;
+import org.ithub.mediastorageservice.model.ReconcileCheckpoint;
+import org.ithub.mediastorageservice.repository.MediaFileRepository;
+import org.ithub.mediastorageservice.repository.ReconcileCheckpointRepository;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Сверка содержимого бакета с ключами в БД по дневным префиксам yyyy/MM/dd/.
+ * Листинг MinIO и ключи из БД идут в одном (побайтовом) порядке, поэтому расхождения
+ * находятся слиянием двух отсортированных потоков - память не зависит от количества объектов
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MediaReconcileService {
+    private static final DateTimeFormatter PREFIX_FORMAT = DateTimeFormatter.ofPattern("yyyy/MM/dd/");
+    private static final int REPAIR_BATCH_SIZE = 1000;
+
+    private final MediaStorageService mediaStorageService;
+    private final MediaFileRepository mediaFileRepository;
+    private final MediaFileService mediaFileService;
+    private final MediaVariantService mediaVariantService;
+    private final ReconcileCheckpointRepository checkpointRepository;
+    private final ReconcileConfig reconcileConfig;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile ReconcileReportDTO lastReport;
+
+    @Scheduled(cron = "${media.reconcile.cron:-}")
+    public void scheduledReconcile() {
+        if (start(null, null, reconcileConfig.isRepair())) {
+            log.info("Scheduled storage reconciliation started");
+        }
+    }
+
+    /**
+     * Запуск сверки в фоне за период (по умолчанию - с самого раннего файла по сегодня)
+     * @return false, если сверка уже выполняется
+     */
+    public boolean start(LocalDate from, LocalDate to, boolean repair) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+
+        ReconcileReportDTO report = new ReconcileReportDTO();
+        report.setRunning(true);
+        report.setRepair(repair);
+        report.setStartedAt(LocalDateTime.now());
+        lastReport = report;
+
+        Thread worker = new Thread(() -> run(from, to, report), "media-reconcile");
+        worker.setDaemon(true);
+        worker.start();
+        return true;
+    }
+
+    public ReconcileReportDTO getLastReport() {
+        return lastReport;
+    }
+
+    private void run(LocalDate from, LocalDate to, ReconcileReportDTO report) {
+        try {
+            LocalDate firstDay = from != null ? from : mediaFileRepository.findEarliestCreatedAt()
+                    .map(LocalDateTime::toLocalDate)
+                    .orElse(LocalDate.now());
+            LocalDate lastDay = to != null ? to : LocalDate.now();
+            LocalDateTime rescanBefore = LocalDateTime.now().minus(reconcileConfig.getRescanAfter());
+
+            for (LocalDate day = firstDay; !day.isAfter(lastDay); day = day.plusDays(1)) {
+                String prefix = day.format(PREFIX_FORMAT);
+                boolean recentlyScanned = checkpointRepository.findById(prefix)
+                        .map(checkpoint -> checkpoint.getScannedAt().isAfter(rescanBefore))
+                        .orElse(false);
+                if (recentlyScanned) {
+                    report.setPrefixesSkipped(report.getPrefixesSkipped() + 1);
+                    continue;
+                }
+                reconcilePrefix(prefix, report);
+                report.setPrefixesScanned(report.getPrefixesScanned() + 1);
+            }
+            log.info("Storage reconciliation finished: {} objects, {} orphans, {} missing, repaired {}/{}",
+                    report.getObjectsScanned(), report.getOrphanObjects(), report.getMissingObjects(),
+                    report.getRepairedOrphans(), report.getRepairedMissing());
+        } catch (Exception e) {
+            log.error("Storage reconciliation failed: {}", e.getMessage(), e);
+            report.setError(e.getMessage());
+        } finally {
+            report.setFinishedAt(LocalDateTime.now());
+            report.setRunning(false);
+            running.set(false);
+        }
+    }
+
+    /**
+     * Слияние листинга префикса с ключами из БД и сохранение чекпоинта
+     */
+    private void reconcilePrefix(String prefix, ReconcileReportDTO report) throws InterruptedException {
+        Iterator<Item> objects = mediaStorageService.listFiles(prefix);
+        DbKeyCursor dbKeys = new DbKeyCursor(prefix + "%");
+        LocalDateTime orphanBefore = LocalDateTime.now().minus(reconcileConfig.getOrphanGrace());
+
+        List<String> orphans = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        long objectCount = 0;
+        long orphanCount = 0;
+        long missingCount = 0;
+        long startedNanos = System.nanoTime();
+
+        Item object = nextObject(objects);
+        String dbKey = dbKeys.next();
+        while (object != null || dbKey != null) {
+            int cmp = object == null ? 1 : dbKey == null ? -1 : compareKeys(object.objectName(), dbKey);
+            if (cmp <= 0) {
+                objectCount++;
+                if (cmp < 0) {
+                    orphanCount++;
+                    addSample(report.getOrphanSamples(), object.objectName());
+                    LocalDateTime modified = LocalDateTime.ofInstant(object.lastModified().toInstant(), ZoneId.systemDefault());
+                    if (report.isRepair() && modified.isBefore(orphanBefore)) {
+                        orphans.add(object.objectName());
+                        if (orphans.size() == REPAIR_BATCH_SIZE) {
+                            report.setRepairedOrphans(report.getRepairedOrphans() + repairOrphans(orphans));
+                        }
+                    }
+                } else {
+                    dbKey = dbKeys.next();
+                }
+                object = nextObject(objects);
+                throttle(objectCount, startedNanos);
+            } else {
+                missingCount++;
+                addSample(report.getMissingSamples(), dbKey);
+                if (report.isRepair()) {
+                    missing.add(dbKey);
+                    if (missing.size() == REPAIR_BATCH_SIZE) {
+                        report.setRepairedMissing(report.getRepairedMissing() + repairMissing(missing));
+                    }
+                }
+                dbKey = dbKeys.next();
+            }
+        }
+        if (!orphans.isEmpty()) {
+            report.setRepairedOrphans(report.getRepairedOrphans() + repairOrphans(orphans));
+        }
+        if (!missing.isEmpty()) {
+            report.setRepairedMissing(report.getRepairedMissing() + repairMissing(missing));
+        }
+
+        report.setObjectsScanned(report.getObjectsScanned() + objectCount);
+        report.setOrphanObjects(report.getOrphanObjects() + orphanCount);
+        report.setMissingObjects(report.getMissingObjects() + missingCount);
+
+        ReconcileCheckpoint checkpoint = new ReconcileCheckpoint();
+        checkpoint.setPrefix(prefix);
+        checkpoint.setScannedAt(LocalDateTime.now());
+        checkpoint.setObjectCount(objectCount);
+        checkpoint.setOrphanCount(orphanCount);
+        checkpoint.setMissingCount(missingCount);
+        checkpointRepository.save(checkpoint);
+
+        if (orphanCount > 0 || missingCount > 0) {
+            log.warn("Prefix {}: {} objects, {} orphans, {} missing", prefix, objectCount, orphanCount, missingCount);
+        }
+    }
+
+    /**
+     * Удаление объектов без строк в БД
+     */
+    private int repairOrphans(List<String> orphans) {
+        int repaired = orphans.size() - mediaStorageService.deleteFiles(orphans).size();
+        orphans.clear();
+        return repaired;
+    }
+
+    /**
+     * Строки без объектов: варианты удаляются, файлы помечаются DELETED и очищаются MediaPurgeService.
+     * Листинг читается постранично, поэтому строки моложе missingGrace не трогаются,
+     * а отсутствие каждого объекта перепроверяется statObject перед исправлением
+     */
+    private int repairMissing(List<String> missing) {
+        LocalDateTime missingBefore = LocalDateTime.now().minus(reconcileConfig.getMissingGrace());
+        List<String> absent = missing.stream()
+                .filter(key -> mediaStorageService.findFile(key).isEmpty())
+                .toList();
+        missing.clear();
+        if (absent.isEmpty()) {
+            return 0;
+        }
+
+        int repaired = mediaVariantService.deleteVariantRowsByStorageKeys(absent, missingBefore);
+        List<Long> fileIds = mediaFileRepository.findIdsByStorageKeys(absent, missingBefore);
+        if (!fileIds.isEmpty()) {
+            repaired += mediaFileService.deleteMediaFiles(fileIds);
+        }
+        return repaired;
+    }
+
+    /**
+     * Ограничение скорости обхода: не быстрее maxObjectsPerSecond
+     */
+    private void throttle(long scanned, long startedNanos) throws InterruptedException {
+        int rate = reconcileConfig.getMaxObjectsPerSecond();
+        if (rate <= 0) {
+            return;
+        }
+        long aheadMillis = (scanned * 1000L / rate) - (System.nanoTime() - startedNanos) / 1_000_000;
+        if (aheadMillis > 10) {
+            Thread.sleep(aheadMillis);
+        }
+    }
+
+    private void addSample(List<String> samples, String key) {
+        if (samples.size() < reconcileConfig.getSampleSize()) {
+            samples.add(key);
+        }
+    }
+
+    private Item nextObject(Iterator<Item> objects) {
+        while (objects.hasNext()) {
+            Item item = objects.next();
+            // Маркеры "папок" не являются объектами
+            if (!item.isDir() && !item.objectName().endsWith("/")) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Сравнение по кодовым точкам - совпадает с побайтовым порядком UTF-8 (листинг S3 и collate "C"),
+     * в отличие от String.compareTo для символов вне BMP
+     */
+    private static int compareKeys(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+            if (ca != cb) {
+                return Integer.compare(ca, cb);
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    /**
+     * Курсор по ключам из БД: keyset-порции фиксированного размера
+     */
+    private class DbKeyCursor {
+        private final String pattern;
+        private List<String> chunk = List.of();
+        private int position;
+        private String lastKey = "";
+        private boolean exhausted;
+
+        DbKeyCursor(String pattern) {
+            this.pattern = pattern;
+        }
+
+        String next() {
+            if (position == chunk.size()) {
+                if (exhausted) {
+                    return null;
+                }
+                chunk = mediaFileRepository.findStorageKeysAfter(pattern, lastKey, reconcileConfig.getDbChunkSize());
+                position = 0;
+                exhausted = chunk.size() < reconcileConfig.getDbChunkSize();
+                if (chunk.isEmpty()) {
+                    return null;
+                }
+            }
+            lastKey = chunk.get(position++);
+            return lastKey;
+        }
+    }
+}
@@ -1,26 +1,55 @@
 package org.ithub.mediastorageservice.service;
 
 import io.minio.*;
+import io.minio.errors.ErrorResponseException;
 import io.minio.http.Method;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
+import io.minio.messages.Item;
+import io.minio.messages.Part;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.ithub.mediastorageservice.config.Minio.MultipartMinioClient;
+import org.ithub.mediastorageservice.config.UploadConfig;
+import org.ithub.mediastorageservice.service.MediaObjectCache.CachedObject;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class MediaStorageService {
+    private static final int REMOVE_BATCH_SIZE = 1000;
+
     private final MinioClient minioClient;
+    private final MultipartMinioClient multipartMinioClient;
+    private final UploadConfig uploadConfig;
+    private final ThreadPoolTaskExecutor partUploadExecutor;
+    private final MediaObjectCache objectCache;
 
     @Value("${minio.bucketName}")
     private String bucketName;
@@ -73,6 +102,106 @@ public class MediaStorageService {
         }
     }
 
+    /**
+     * Загрузка локального файла (временной копии загрузки) в MinIO
+     */
+    public String uploadFile(Path source, String originalFilename, String contentType) {
+        try (InputStream is = Files.newInputStream(source)) {
+            // Большие файлы - частями, параллельно
+            if (Files.size(source) >= uploadConfig.getMultipartThreshold().toBytes()) {
+                return uploadStream(is, originalFilename, contentType);
+            }
+
+            String filename = generateFileName(originalFilename);
+
+            minioClient.putObject(PutObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(filename)
+                    .stream(is, Files.size(source), -1)
+                    .contentType(contentType)
+                    .build());
+
+            return filename;
+        } catch (Exception e) {
+            log.error("Error uploading file to MinIO: {}", e.getMessage(), e);
+            throw new RuntimeException("Could not upload file to MinIO", e);
+        }
+    }
+
+    /**
+     * Загрузка потока неизвестной длины через multipart API: поток режется на части фиксированного размера,
+     * части отправляются параллельно на общем пуле. В памяти одновременно не больше maxInFlightParts частей;
+     * при любой ошибке multipart-загрузка отменяется (abort), чтобы не оставлять недозагруженные части
+     */
+    public String uploadStream(InputStream source, String originalFilename, String contentType) {
+        String filename = generateFileName(originalFilename);
+        int partSize = (int) uploadConfig.getPartSize().toBytes();
+        Semaphore inFlight = new Semaphore(uploadConfig.getMaxInFlightParts());
+        List<CompletableFuture<Part>> parts = new ArrayList<>();
+
+        String uploadId;
+        try {
+            uploadId = multipartMinioClient.createUpload(bucketName, filename, contentType);
+        } catch (Exception e) {
+            log.error("Error starting multipart upload to MinIO: {}", e.getMessage(), e);
+            throw new RuntimeException("Could not upload file to MinIO", e);
+        }
+
+        try {
+            int partNumber = 0;
+            while (true) {
+                // Ждем, пока освободится место под следующую часть
+                inFlight.acquire();
+                byte[] data = source.readNBytes(partSize);
+                if (data.length == 0 && partNumber > 0) {
+                    inFlight.release();
+                    break;
+                }
+
+                int number = ++partNumber;
+                parts.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return multipartMinioClient.uploadPart(bucketName, filename, uploadId, number, data);
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    } finally {
+                        inFlight.release();
+                    }
+                }, partUploadExecutor));
+
+                if (data.length < partSize || parts.stream().anyMatch(CompletableFuture::isCompletedExceptionally)) {
+                    break;
+                }
+            }
+
+            CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).join();
+            Part[] uploaded = parts.stream().map(CompletableFuture::join).toArray(Part[]::new);
+            multipartMinioClient.completeUpload(bucketName, filename, uploadId, uploaded);
+            log.debug("Uploaded {} in {} parts", filename, uploaded.length);
+            return filename;
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            abortUpload(filename, uploadId, parts);
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            log.error("Error uploading file to MinIO in parts: {}", cause.getMessage(), cause);
+            throw new RuntimeException("Could not upload file to MinIO", cause);
+        }
+    }
+
+    /**
+     * Отмена multipart-загрузки после завершения уже отправляемых частей
+     */
+    private void abortUpload(String filename, String uploadId, List<CompletableFuture<Part>> parts) {
+        parts.forEach(part -> part.exceptionally(e -> null).join());
+        try {
+            multipartMinioClient.abortUpload(bucketName, filename, uploadId);
+        } catch (Exception e) {
+            log.warn("Could not abort multipart upload {} of {}: {}", uploadId, filename, e.getMessage());
+        }
+    }
+
     /**
      * Получение файла из MinIO
      */
@@ -92,6 +221,130 @@ public class MediaStorageService {
         }
     }
 
+    /**
+     * Получение сведений об объекте (размер, ETag, дата изменения) без чтения содержимого
+     */
+    public StatObjectResponse statFile(String filename) {
+        try {
+            return minioClient.statObject(StatObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(filename)
+                    .build());
+        } catch (Exception e) {
+            log.error("Error getting file info from MinIO: {}", e.getMessage(), e);
+            throw new RuntimeException("Could not get file info from MinIO", e);
+        }
+    }
+
+    /**
+     * Объект из локального кэша; при промахе объект читается из MinIO и кэшируется.
+     * Пустой результат - кэш выключен, объект слишком большой или был перезаписан во время чтения
+     */
+    public Optional<CachedObject> getCachedFile(String filename) {
+        if (!objectCache.isEnabled()) {
+            return Optional.empty();
+        }
+        Optional<CachedObject> cached = objectCache.get(filename);
+        if (cached.isPresent()) {
+            if (!objectCache.needsRevalidation(cached.get())) {
+                return cached;
+            }
+            if (Objects.equals(statFile(filename).etag(), cached.get().etag())) {
+                return Optional.of(objectCache.revalidated(filename, cached.get()));
+            }
+            // Объект перезаписан через другой экземпляр сервиса
+            objectCache.invalidate(filename);
+        }
+
+        long loadGeneration = objectCache.generation();
+        StatObjectResponse stat = statFile(filename);
+        if (!objectCache.accepts(stat.size())) {
+            return Optional.empty();
+        }
+        try (InputStream is = getFileStream(filename, 0, null, stat.etag())) {
+            return objectCache.put(filename, is, stat.size(), stat.etag(), stat.lastModified(), stat.contentType(),
+                    loadGeneration);
+        } catch (IOException e) {
+            log.warn("Could not cache object {}: {}", filename, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Информация об объекте или пустой результат, если объекта нет
+     */
+    public Optional<StatObjectResponse> findFile(String filename) {
+        try {
+            return Optional.of(minioClient.statObject(StatObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(filename)
+                    .build()));
+        } catch (ErrorResponseException e) {
+            if ("NoSuchKey".equals(e.errorResponse().code())) {
+                return Optional.empty();
+            }
+            log.error("Error getting file info from MinIO: {}", e.getMessage(), e);
+            throw new RuntimeException("Could not get file info from MinIO", e);
+        } catch (Exception e) {
+            log.error("Error getting file info from MinIO: {}", e.getMessage(), e);
+            throw new RuntimeException("Could not get file info from MinIO", e);
+        }
+    }
+
+    /**
+     * Потоковое чтение объекта или его диапазона из MinIO.
+     * Поток нужно закрыть после чтения; etag (если задан) гарантирует, что объект не изменился после statFile
+     */
+    public InputStream getFileStream(String filename, long offset, Long length, String etag) {
+        try {
+            GetObjectArgs.Builder args = GetObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(filename);
+            if (offset > 0) {
+                args.offset(offset);
+            }
+            if (length != null) {
+                args.length(length);
+            }
+            if (etag != null) {
+                args.matchETag(etag);
+            }
+            return minioClient.getObject(args.build());
+        } catch (Exception e) {
+            log.error("Error getting file stream from MinIO: {}", e.getMessage(), e);
+            throw new RuntimeException("Could not get file from MinIO", e);
+        }
+    }
+
+    /**
+     * Потоковый обход объектов под префиксом (рекурсивно, в лексикографическом порядке ключей).
+     * MinIO отдает список страницами, в памяти держится только текущая страница
+     */
+    public Iterator<Item> listFiles(String prefix) {
+        Iterator<Result<Item>> results = minioClient.listObjects(ListObjectsArgs.builder()
+                .bucket(bucketName)
+                .prefix(prefix)
+                .recursive(true)
+                .build()).iterator();
+
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return results.hasNext();
+            }
+
+            @Override
+            public Item next() {
+                try {
+                    return results.next().get();
+                } catch (Exception e) {
+                    log.error("Error listing files in MinIO: {}", e.getMessage(), e);
+                    throw new RuntimeException("Could not list files in MinIO", e);
+                }
+            }
+        };
+    }
+
     /**
      * Получение временной ссылки на файл
      */
@@ -109,11 +362,36 @@ public class MediaStorageService {
         }
     }
 
+    /**
+     * Временная ссылка для загрузки объекта напрямую в MinIO (PUT), минуя сервис
+     */
+    public String getPresignedUploadUrl(String filename, int expiryMinutes) {
+        try {
+            return minioClient.getPresignedObjectUrl(GetPresignedObjectUrlArgs.builder()
+                    .bucket(bucketName)
+                    .object(filename)
+                    .method(Method.PUT)
+                    .expiry(expiryMinutes, TimeUnit.MINUTES)
+                    .build());
+        } catch (Exception e) {
+            log.error("Error generating presigned upload URL: {}", e.getMessage(), e);
+            throw new RuntimeException("Could not generate presigned upload URL", e);
+        }
+    }
+
+    /**
+     * Ключ для нового объекта (для загрузок, которые идут в MinIO не через сервис)
+     */
+    public String newStorageKey(String originalFilename) {
+        return generateFileName(originalFilename);
+    }
+
     /**
      * Удаление файла из MinIO
      */
     @Transactional
     public void deleteFile(String filename) {
+        objectCache.invalidate(filename);
         try {
             minioClient.removeObject(RemoveObjectArgs.builder()
                     .bucket(bucketName)
@@ -125,6 +403,36 @@ public class MediaStorageService {
         }
     }
 
+    /**
+     * Пакетное удаление объектов: removeObjects порциями до 1000 ключей (ограничение S3 DeleteObjects)
+     * @return ключи, которые MinIO не смог удалить
+     */
+    public Set<String> deleteFiles(Collection<String> filenames) {
+        filenames.forEach(objectCache::invalidate);
+        Set<String> failed = new HashSet<>();
+        List<String> keys = new ArrayList<>(filenames);
+        for (int from = 0; from < keys.size(); from += REMOVE_BATCH_SIZE) {
+            List<DeleteObject> batch = keys.subList(from, Math.min(from + REMOVE_BATCH_SIZE, keys.size())).stream()
+                    .map(DeleteObject::new)
+                    .toList();
+            try {
+                // Результат ленивый: запрос уходит только при обходе итератора
+                for (Result<DeleteError> result : minioClient.removeObjects(RemoveObjectsArgs.builder()
+                        .bucket(bucketName)
+                        .objects(batch)
+                        .build())) {
+                    DeleteError error = result.get();
+                    log.warn("Could not delete object {} from MinIO: {}", error.objectName(), error.message());
+                    failed.add(error.objectName());
+                }
+            } catch (Exception e) {
+                log.error("Error deleting files from MinIO: {}", e.getMessage(), e);
+                throw new RuntimeException("Could not delete files from MinIO", e);
+            }
+        }
+        return failed;
+    }
+
 
     /**
      * Добавьте этот метод в MinioService
@@ -139,6 +447,8 @@ public class MediaStorageService {
                     .stream(inputStream, data.length, -1)
                     .contentType(contentType)
                     .build());
+            // Варианты перезаписываются по тому же ключу (повторная обработка)
+            objectCache.invalidate(filename);
         } catch (Exception e) {
             log.error("Error uploading bytes to MinIO: {}", e.getMessage(), e);
             throw new RuntimeException("Could not upload bytes to MinIO", e);
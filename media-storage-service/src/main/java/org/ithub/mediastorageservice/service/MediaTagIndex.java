@@ -0,0 +1,301 @@
+package org.ithub.mediastorageservice.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.ithub.mediastorageservice.enums.MediaType;
+import org.ithub.mediastorageservice.repository.MediaFileRepository;
+import org.ithub.mediastorageservice.repository.MediaFileRepository.FileTypeRow;
+import org.ithub.mediastorageservice.model.Tag;
+import org.ithub.mediastorageservice.repository.MediaFileTagRepository;
+import org.ithub.mediastorageservice.repository.MediaFileTagRepository.TagLinkRow;
+import org.ithub.mediastorageservice.repository.TagRepository;
+import org.jetbrains.annotations.NotNull;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Инвертированный индекс тегов в памяти: тег -> сжатый битмап id медиа-файлов,
+ * плюс битмап на каждый MediaType. Строится из БД при старте и обновляется инкрементально;
+ * поиск по тегам и типу сводится к операциям над битмапами, из Postgres читается только страница id.
+ * Порядок выдачи - по id (совпадает с порядком createdAt, так как id выдаются по возрастанию).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MediaTagIndex implements ApplicationListener<ApplicationReadyEvent> {
+    private static final int BUILD_CHUNK_SIZE = 10_000;
+    private static final Set<String> INDEX_SORT_PROPERTIES = Set.of("createdAt", "id");
+
+    private final TagRepository tagRepository;
+    private final MediaFileTagRepository mediaFileTagRepository;
+    private final MediaFileRepository mediaFileRepository;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Roaring64NavigableMap> tagBitmaps = new HashMap<>();
+    private final Map<MediaType, Roaring64NavigableMap> typeBitmaps = new EnumMap<>(MediaType.class);
+    private volatile boolean ready;
+    // Изменения, пришедшие во время перестройки: повторяются на новых битмапах перед подменой (под lock)
+    private List<IndexDelta> pendingDeltas;
+
+    /**
+     * Результат поиска по индексу: id страницы в порядке выдачи и общее количество
+     */
+    public record IndexPage(List<Long> ids, long total) {
+    }
+
+    /**
+     * Инкрементальное изменение индекса, применимое и к живым, и к перестраиваемым битмапам
+     */
+    private interface IndexDelta {
+        void apply(Map<String, Roaring64NavigableMap> tags, Map<MediaType, Roaring64NavigableMap> types);
+    }
+
+    @Override
+    public void onApplicationEvent(@NotNull ApplicationReadyEvent event) {
+        Thread builder = new Thread(this::rebuild, "media-tag-index-builder");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    /**
+     * Полная перестройка индекса из БД порциями по id
+     */
+    public void rebuild() {
+        long started = System.currentTimeMillis();
+        ready = false;
+        lock.writeLock().lock();
+        try {
+            pendingDeltas = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            Map<String, Roaring64NavigableMap> tags = new HashMap<>();
+            Map<MediaType, Roaring64NavigableMap> types = new EnumMap<>(MediaType.class);
+
+            long afterId = 0;
+            List<FileTypeRow> fileRows;
+            do {
+                fileRows = mediaFileRepository.findTypeRowsAfter(afterId, Limit.of(BUILD_CHUNK_SIZE));
+                for (FileTypeRow row : fileRows) {
+                    types.computeIfAbsent(row.getMediaType(), t -> new Roaring64NavigableMap()).addLong(row.getId());
+                    afterId = row.getId();
+                }
+            } while (fileRows.size() == BUILD_CHUNK_SIZE);
+
+            // Словарь тегов небольшой, связи читаются только как пары целых
+            Map<Integer, String> tagNames = new HashMap<>();
+            for (Tag tag : tagRepository.findAll()) {
+                tagNames.put(tag.getId(), tag.getName());
+            }
+
+            long afterMediaId = 0;
+            int afterTagId = 0;
+            List<TagLinkRow> linkRows;
+            do {
+                linkRows = mediaFileTagRepository.findLinkRowsAfter(afterMediaId, afterTagId, Limit.of(BUILD_CHUNK_SIZE));
+                for (TagLinkRow row : linkRows) {
+                    String name = tagNames.get(row.getTagId());
+                    if (name != null) {
+                        tags.computeIfAbsent(name, t -> new Roaring64NavigableMap()).addLong(row.getMediaFileId());
+                    }
+                    afterMediaId = row.getMediaFileId();
+                    afterTagId = row.getTagId();
+                }
+            } while (linkRows.size() == BUILD_CHUNK_SIZE);
+
+            lock.writeLock().lock();
+            try {
+                // Снимок читался без блокировки: изменения за время чтения повторяются по порядку
+                pendingDeltas.forEach(delta -> delta.apply(tags, types));
+                tagBitmaps.clear();
+                tagBitmaps.putAll(tags);
+                typeBitmaps.clear();
+                typeBitmaps.putAll(types);
+                ready = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.info("Media tag index built: {} tags, {} files in {} ms", tags.size(),
+                    types.values().stream().mapToLong(Roaring64NavigableMap::getLongCardinality).sum(),
+                    System.currentTimeMillis() - started);
+        } catch (Exception e) {
+            log.error("Could not build media tag index, searches will use the database: {}", e.getMessage(), e);
+        } finally {
+            lock.writeLock().lock();
+            try {
+                pendingDeltas = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Поиск страницы id: файлы с любым (matchAll=false) или всеми тегами, опционально заданного типа.
+     * Пустой результат - индекс не готов или сортировка не поддерживается, нужно идти в БД
+     */
+    public Optional<IndexPage> search(Set<String> tags, boolean matchAll, MediaType mediaType, Pageable pageable) {
+        if (!ready || tags == null || tags.isEmpty()) {
+            return Optional.empty();
+        }
+
+        Sort sort = pageable.getSort();
+        boolean ascending = false;
+        if (sort.isSorted()) {
+            List<Sort.Order> orders = sort.toList();
+            if (orders.size() != 1 || !INDEX_SORT_PROPERTIES.contains(orders.get(0).getProperty())) {
+                return Optional.empty();
+            }
+            ascending = orders.get(0).isAscending();
+        }
+
+        Roaring64NavigableMap result = new Roaring64NavigableMap();
+        lock.readLock().lock();
+        try {
+            boolean first = true;
+            for (String tag : tags) {
+                Roaring64NavigableMap bitmap = tagBitmaps.get(tag);
+                if (bitmap == null) {
+                    if (matchAll) {
+                        return Optional.of(new IndexPage(List.of(), 0));
+                    }
+                    continue;
+                }
+                if (first || !matchAll) {
+                    result.or(bitmap);
+                } else {
+                    result.and(bitmap);
+                }
+                first = false;
+            }
+
+            if (mediaType != null) {
+                Roaring64NavigableMap typeBitmap = typeBitmaps.get(mediaType);
+                if (typeBitmap == null) {
+                    return Optional.of(new IndexPage(List.of(), 0));
+                }
+                result.and(typeBitmap);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        long total = result.getLongCardinality();
+        List<Long> ids = new ArrayList<>(pageable.getPageSize());
+        for (long i = pageable.getOffset(); i < total && ids.size() < pageable.getPageSize(); i++) {
+            ids.add(result.select(ascending ? i : total - 1 - i));
+        }
+        return Optional.of(new IndexPage(ids, total));
+    }
+
+    /**
+     * Регистрация нового файла (битмап типа)
+     */
+    public void addFile(long mediaId, MediaType mediaType) {
+        apply((tags, types) -> types.computeIfAbsent(mediaType, t -> new Roaring64NavigableMap()).addLong(mediaId));
+    }
+
+    /**
+     * Удаление файла из всех битмапов
+     */
+    public void removeFile(long mediaId) {
+        apply((tags, types) -> {
+            tags.values().forEach(bitmap -> bitmap.removeLong(mediaId));
+            types.values().forEach(bitmap -> bitmap.removeLong(mediaId));
+            tags.values().removeIf(Roaring64NavigableMap::isEmpty);
+        });
+    }
+
+    /**
+     * Удаление набора файлов из всех битмапов (пакетное удаление)
+     */
+    public void removeFiles(Collection<Long> mediaIds) {
+        if (mediaIds == null || mediaIds.isEmpty()) {
+            return;
+        }
+        Roaring64NavigableMap removed = new Roaring64NavigableMap();
+        mediaIds.forEach(removed::addLong);
+        apply((tags, types) -> {
+            tags.values().forEach(bitmap -> bitmap.andNot(removed));
+            types.values().forEach(bitmap -> bitmap.andNot(removed));
+            tags.values().removeIf(Roaring64NavigableMap::isEmpty);
+        });
+    }
+
+    public void addTags(long mediaId, Collection<String> tags) {
+        if (tags == null || tags.isEmpty()) {
+            return;
+        }
+        apply((tagMaps, types) -> {
+            for (String tag : tags) {
+                tagMaps.computeIfAbsent(tag, t -> new Roaring64NavigableMap()).addLong(mediaId);
+            }
+        });
+    }
+
+    public void removeTags(long mediaId, Collection<String> tags) {
+        if (tags == null || tags.isEmpty()) {
+            return;
+        }
+        apply((tagMaps, types) -> {
+            for (String tag : tags) {
+                Roaring64NavigableMap bitmap = tagMaps.get(tag);
+                if (bitmap != null) {
+                    bitmap.removeLong(mediaId);
+                    if (bitmap.isEmpty()) {
+                        tagMaps.remove(tag);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Применение изменения к живым битмапам; во время перестройки оно также запоминается для повтора
+     */
+    private void apply(IndexDelta delta) {
+        afterCommit(() -> {
+            lock.writeLock().lock();
+            try {
+                delta.apply(tagBitmaps, typeBitmaps);
+                if (pendingDeltas != null) {
+                    pendingDeltas.add(delta);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Изменение индекса применяется только после фиксации транзакции (если она есть)
+     */
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
@@ -2,62 +2,74 @@ package org.ithub.mediastorageservice.service;
 
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
-import org.ithub.mediastorageservice.enums.MediaTagType;
 import org.ithub.mediastorageservice.model.MediaFile;
-import org.ithub.mediastorageservice.model.MediaTag;
-import org.ithub.mediastorageservice.repository.MediaTagRepository;
+import org.ithub.mediastorageservice.model.Tag;
+import org.ithub.mediastorageservice.repository.MediaFileTagRepository;
+import org.ithub.mediastorageservice.repository.MediaFileTagRepository.TagNameRow;
+import org.ithub.mediastorageservice.repository.TagRepository;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 public class MediaTagService {
-    private final MediaTagRepository mediaTagRepository;
+    private final TagRepository tagRepository;
+    private final MediaFileTagRepository mediaFileTagRepository;
+    private final MediaTagIndex mediaTagIndex;
 
+    @Transactional
     public void addTagsToFile(MediaFile mediaFile, Set<String> tags) {
         if (tags != null && !tags.isEmpty()) {
-            List<MediaTag> existingTags  = mediaTagRepository.findByMediaFileId(mediaFile.getId());
-            Set<String> existingTagNames  = existingTags.stream()
-                    .map(MediaTag::getName)
-                    .collect(Collectors.toSet());
-
-            // Добавляем только новые теги
-            for(String tag : tags) {
-                if (!existingTagNames.contains(tag)) {
-                    MediaTag mediaTag = new MediaTag();
-                    mediaTag.setMediaFile(mediaFile);
-                    mediaTag.setName(tag);
-                    mediaTag.setType(MediaTagType.MANUAL);
-                    mediaTagRepository.save(mediaTag);
-                }
-            }
+            // Один запрос: новые имена в словарь, новые связи в таблицу, дубликаты пропускаются
+            mediaFileTagRepository.addTags(mediaFile.getId(), tags);
+            mediaTagIndex.addTags(mediaFile.getId(), tags);
         }
     }
 
+    @Transactional
     public void removeTagsFromFile(MediaFile mediaFile, Set<String> tags) {
         if (tags != null && !tags.isEmpty()) {
-            List<MediaTag> tagsToRemove = mediaTagRepository.findByMediaFileIdAndNameIn(
-                    mediaFile.getId(), tags);
-            mediaTagRepository.deleteAll(tagsToRemove);
+            mediaFileTagRepository.removeTags(mediaFile.getId(), tags);
+            mediaTagIndex.removeTags(mediaFile.getId(), tags);
         }
     }
 
-    public List<MediaTag> getTagsForFile(Long mediaFileId) {
-        return mediaTagRepository.findByMediaFileId(mediaFileId);
+    public Set<String> getTagsNameForFile(Long mediaFileId) {
+        return getTagsNameForFiles(List.of(mediaFileId)).getOrDefault(mediaFileId, Set.of());
     }
 
-    public Set<String> getTagsNameForFile(Long mediaFileId) {
-        List<MediaTag> tags = getTagsForFile(mediaFileId);
-        return tags.stream()
-                .map(MediaTag::getName)
-                .collect(Collectors.toSet());
+    /**
+     * Имена тегов для набора файлов одним запросом
+     */
+    public Map<Long, Set<String>> getTagsNameForFiles(Collection<Long> mediaFileIds) {
+        if (mediaFileIds.isEmpty()) {
+            return Map.of();
+        }
+        return mediaFileTagRepository.findTagNames(mediaFileIds).stream()
+                .collect(Collectors.groupingBy(TagNameRow::getMediaFileId,
+                        Collectors.mapping(TagNameRow::getName, Collectors.toSet())));
+    }
+
+    /**
+     * Id существующих тегов по именам; отсутствующие в словаре имена пропускаются
+     */
+    public Map<String, Integer> resolveTagIds(Collection<String> names) {
+        return tagRepository.findByNameIn(names).stream()
+                .collect(Collectors.toMap(Tag::getName, Tag::getId));
     }
 
     @Transactional
     public void deleteAllTagsByMediaFileId(Long mediaFileId) {
-        mediaTagRepository.deleteByMediaFileId(mediaFileId);
+        mediaFileTagRepository.deleteByMediaId(mediaFileId);
+    }
+
+    @Transactional
+    public void deleteAllTagsByMediaFileIds(Collection<Long> mediaFileIds) {
+        mediaFileTagRepository.deleteByMediaIds(mediaFileIds);
     }
 }
@@ -0,0 +1,245 @@
+package org.ithub.mediastorageservice.service;
+
+import jakarta.persistence.EntityNotFoundException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.ithub.mediastorageservice.config.UploadConfig;
+import org.ithub.mediastorageservice.exception.UploadOffsetMismatchException;
+import org.ithub.mediastorageservice.model.MediaFile;
+import org.ithub.mediastorageservice.model.UploadSession;
+import org.ithub.mediastorageservice.repository.UploadSessionRepository;
+import org.ithub.mediastorageservice.util.MediaSpool;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Возобновляемая загрузка: сессия, части по смещению во временный файл на диске, завершение.
+ * Принятые байты переживают обрыв соединения - клиент узнает смещение и продолжает с него
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MediaUploadSessionService {
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final int CLEANUP_BATCH_SIZE = 100;
+
+    private final UploadSessionRepository uploadSessionRepository;
+    private final MediaFileService mediaFileService;
+    private final MediaSpool mediaSpool;
+    private final UploadConfig uploadConfig;
+
+    // Одна часть сессии пишется в файл в каждый момент времени
+    private final ConcurrentHashMap<String, ReentrantLock> sessionLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Создание сессии загрузки
+     * @param totalSize заявленный размер файла или null, если он неизвестен
+     */
+    public UploadSession createSession(String originalFilename, String contentType, Long totalSize,
+                                       String description, Set<String> tags) throws IOException {
+        if (totalSize != null && (totalSize < 0 || totalSize > uploadConfig.getMaxSessionSize().toBytes())) {
+            throw new IllegalArgumentException("Upload size must be from 0 to " + uploadConfig.getMaxSessionSize().toBytes());
+        }
+
+        UploadSession session = new UploadSession();
+        session.setId(UUID.randomUUID().toString());
+        session.setOriginalFilename(originalFilename);
+        session.setContentType(contentType != null ? contentType : "application/octet-stream");
+        session.setTotalSize(totalSize);
+        session.setDescription(description);
+        if (tags != null && !tags.isEmpty()) {
+            session.setTags(String.join(",", tags));
+        }
+        session.setStagingPath(mediaSpool.createTempFile("resumable-").toString());
+        session.setExpiresAt(LocalDateTime.now().plus(uploadConfig.getSessionTtl()));
+
+        UploadSession saved = uploadSessionRepository.save(session);
+        log.info("Upload session {} created for file: {}, size: {}", saved.getId(), originalFilename, totalSize);
+        return saved;
+    }
+
+    public UploadSession getSession(String id) {
+        return uploadSessionRepository.findById(id)
+                .orElseThrow(() -> new EntityNotFoundException("Upload session not found with id: " + id));
+    }
+
+    /**
+     * Дописывание части с указанного смещения. Смещение должно совпадать с уже принятым;
+     * при обрыве соединения сохраняется все, что успело записаться на диск
+     */
+    public UploadSession appendChunk(String id, long offset, InputStream body) throws IOException {
+        ReentrantLock lock = sessionLocks.computeIfAbsent(id, key -> new ReentrantLock());
+        if (!lock.tryLock()) {
+            throw new UploadOffsetMismatchException("Another chunk of upload " + id + " is in progress",
+                    getSession(id).getCommittedOffset());
+        }
+        try {
+            UploadSession session = getSession(id);
+            if (offset != session.getCommittedOffset()) {
+                throw new UploadOffsetMismatchException("Expected offset " + session.getCommittedOffset()
+                        + " for upload " + id + ", got " + offset, session.getCommittedOffset());
+            }
+
+            long limit = session.getTotalSize() != null ? session.getTotalSize() : uploadConfig.getMaxSessionSize().toBytes();
+            try (FileChannel channel = FileChannel.open(Path.of(session.getStagingPath()), StandardOpenOption.WRITE)) {
+                // Хвост, записанный после последнего сохраненного смещения (сбой между записью и сохранением), отбрасывается
+                channel.truncate(offset);
+                channel.position(offset);
+                try {
+                    copy(body, channel, limit);
+                } finally {
+                    session.setCommittedOffset(channel.position());
+                    session.setExpiresAt(LocalDateTime.now().plus(uploadConfig.getSessionTtl()));
+                    uploadSessionRepository.save(session);
+                }
+            }
+            return session;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Завершение загрузки: собранный файл проходит обычное создание MediaFile
+     */
+    public MediaFile complete(String id) throws IOException {
+        ReentrantLock lock = sessionLocks.computeIfAbsent(id, key -> new ReentrantLock());
+        if (!lock.tryLock()) {
+            throw new UploadOffsetMismatchException("A chunk of upload " + id + " is in progress",
+                    getSession(id).getCommittedOffset());
+        }
+        try {
+            UploadSession session = getSession(id);
+            if (session.getTotalSize() != null && session.getCommittedOffset() != session.getTotalSize()) {
+                throw new UploadOffsetMismatchException("Upload " + id + " is incomplete: " + session.getCommittedOffset()
+                        + " of " + session.getTotalSize() + " bytes", session.getCommittedOffset());
+            }
+
+            Path stagingPath = Path.of(session.getStagingPath());
+            try {
+                MediaFile mediaFile = mediaFileService.createMediaFileFromSpool(mediaSpool.adopt(stagingPath),
+                        session.getOriginalFilename(), session.getContentType(), session.getDescription(), parseTags(session));
+                uploadSessionRepository.delete(session);
+                log.info("Upload session {} completed as media {}", id, mediaFile.getId());
+                return mediaFile;
+            } catch (RuntimeException | IOException e) {
+                // Если собранный файл уцелел (например, очередь обработки заполнена), завершение можно повторить
+                if (!Files.exists(stagingPath)) {
+                    uploadSessionRepository.delete(session);
+                }
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+            sessionLocks.remove(id, lock);
+        }
+    }
+
+    /**
+     * Отмена загрузки с удалением принятых данных
+     */
+    public void abort(String id) {
+        ReentrantLock lock = sessionLocks.computeIfAbsent(id, key -> new ReentrantLock());
+        if (!lock.tryLock()) {
+            throw new UploadOffsetMismatchException("A chunk of upload " + id + " is in progress",
+                    getSession(id).getCommittedOffset());
+        }
+        try {
+            UploadSession session = getSession(id);
+            mediaSpool.release(Path.of(session.getStagingPath()));
+            uploadSessionRepository.delete(session);
+            log.info("Upload session {} aborted", id);
+        } finally {
+            lock.unlock();
+            sessionLocks.remove(id, lock);
+        }
+    }
+
+    /**
+     * Удаление просроченных сессий вместе с временными файлами
+     */
+    @Scheduled(fixedDelayString = "${media.upload.session-cleanup-interval:PT10M}")
+    public void cleanupExpiredSessions() {
+        try {
+            int removed = 0;
+            List<UploadSession> expired;
+            do {
+                expired = uploadSessionRepository.findByExpiresAtBeforeOrderByExpiresAt(LocalDateTime.now(),
+                        Limit.of(CLEANUP_BATCH_SIZE));
+                int batchRemoved = 0;
+                for (UploadSession session : expired) {
+                    if (expire(session)) {
+                        batchRemoved++;
+                    }
+                }
+                removed += batchRemoved;
+                // Все оставшиеся сессии порции заняты - ждем следующего прохода
+                if (batchRemoved == 0) {
+                    break;
+                }
+            } while (expired.size() == CLEANUP_BATCH_SIZE);
+
+            if (removed > 0) {
+                log.info("Removed {} expired upload sessions", removed);
+            }
+        } catch (Exception e) {
+            log.error("Error removing expired upload sessions: {}", e.getMessage(), e);
+        }
+    }
+
+    private boolean expire(UploadSession session) {
+        ReentrantLock lock = sessionLocks.computeIfAbsent(session.getId(), key -> new ReentrantLock());
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            mediaSpool.release(Path.of(session.getStagingPath()));
+            uploadSessionRepository.delete(session);
+            return true;
+        } finally {
+            lock.unlock();
+            sessionLocks.remove(session.getId(), lock);
+        }
+    }
+
+    private void copy(InputStream body, FileChannel channel, long limit) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        int read;
+        while ((read = body.read(buffer)) != -1) {
+            if (channel.position() + read > limit) {
+                throw new IllegalArgumentException("Upload exceeds its size of " + limit + " bytes");
+            }
+            ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+            while (chunk.hasRemaining()) {
+                channel.write(chunk);
+            }
+        }
+    }
+
+    private Set<String> parseTags(UploadSession session) {
+        if (session.getTags() == null || session.getTags().isEmpty()) {
+            return null;
+        }
+        return Arrays.stream(session.getTags().split(","))
+                .map(String::trim)
+                .filter(tag -> !tag.isEmpty())
+                .collect(Collectors.toSet());
+    }
+}
@@ -1,19 +1,39 @@
 package org.ithub.mediastorageservice.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.persistence.EntityNotFoundException;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.ithub.mediastorageservice.config.VariantProfileConfig;
 import org.ithub.mediastorageservice.enums.MediaStatus;
+import org.ithub.mediastorageservice.enums.MediaType;
 import org.ithub.mediastorageservice.model.MediaFile;
 import org.ithub.mediastorageservice.model.MediaVariant;
 import org.ithub.mediastorageservice.repository.MediaFileRepository;
 import org.ithub.mediastorageservice.repository.MediaVariantRepository;
-import org.springframework.core.io.ByteArrayResource;
-import org.springframework.core.io.Resource;
+import org.ithub.mediastorageservice.repository.MediaVariantRepository.VariantKeyRow;
+import org.ithub.mediastorageservice.util.VariantSpec;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Service
@@ -22,36 +42,117 @@ public class MediaVariantService {
     private final MediaVariantRepository mediaVariantRepository;
     private final MediaStorageService mediaStorageService;
     private final ImageProcessingService imageProcessingService;
+    private final MediaDeliveryService mediaDeliveryService;
+    private final VariantProfileConfig variantProfileConfig;
     private final MediaFileRepository mediaFileRepository;
+    private final MeterRegistry meterRegistry;
+
+    // Выполняющиеся ленивые генерации по ключу mediaId:variantName - параллельные запросы ждут одну
+    private final ConcurrentMap<String, CompletableFuture<MediaVariant>> materializing = new ConcurrentHashMap<>();
 
 
     /**
-     * Обработка вариантов изображения
+     * Обработка вариантов изображения. Исключения пробрасываются наверх,
+     * статусом файла управляет MediaProcessingService.
+     * source - локальная копия оригинала; если ее нет (повторная обработка), оригинал читается из MinIO
      */
-    public void processImageVariants(MediaFile mediaFile) {
-        try {
-            // Получаем оригинальное изображение из хранилища
-            byte[] imageData = mediaStorageService.getFile(mediaFile.getStorageKey());
+    public void processImageVariants(MediaFile mediaFile, Path source) {
+        // Строятся профили, которые генерируются при загрузке (см. VariantProfileConfig.lazy)
+        List<VariantSpec> specs = variantProfileConfig.eagerSpecsFor(mediaFile.getMediaType());
+
+        // Убираем варианты строящихся профилей от предыдущей (частично выполненной) попытки;
+        // уже построенные по запросу ленивые варианты остаются
+        Set<String> names = specs.stream()
+                .map(VariantSpec::getName)
+                .collect(Collectors.toSet());
+        mediaVariantRepository.deleteAll(mediaVariantRepository.findByMediaFileId(mediaFile.getId()).stream()
+                .filter(variant -> names.contains(variant.getVariantName()))
+                .toList());
+        if (specs.isEmpty()) {
+            return;
+        }
 
-            // Создаем миниатюру
-            MediaVariant thumbnailVariant = imageProcessingService.createThumbnail(mediaFile, imageData, 150, 150);
+        byte[] imageData = readOriginal(mediaFile, source);
 
-            // Создаем вариант среднего размера
-            MediaVariant mediumVariant = imageProcessingService.createResizedVariant(mediaFile, imageData, 600, 600, "medium");
+        // Все варианты строятся за одно декодирование оригинала
+        imageProcessingService.createVariants(mediaFile, imageData, specs);
+    }
+
+    /**
+     * Перестроение вариантов перечисленных профилей у готового файла. Старые варианты продолжают
+     * отдаваться, пока строятся новые: записи заменяются одной транзакцией (replaceVariants)
+     * @return новые варианты, еще не сохраненные
+     */
+    public List<MediaVariant> buildVariants(MediaFile mediaFile, Set<String> profileNames) {
+        List<VariantSpec> specs = variantProfileConfig.specsFor(mediaFile.getMediaType()).stream()
+                .filter(spec -> profileNames.contains(spec.getName()))
+                .toList();
+        if (specs.isEmpty()) {
+            return List.of();
+        }
+        return imageProcessingService.buildVariants(mediaFile, readOriginal(mediaFile, null), specs);
+    }
+
+    /**
+     * Замена записей вариантов с теми же именами на новые
+     */
+    @Transactional
+    public void replaceVariants(Long mediaFileId, List<MediaVariant> variants) {
+        if (variants.isEmpty()) {
+            return;
+        }
+        List<String> names = variants.stream()
+                .map(MediaVariant::getVariantName)
+                .toList();
+        mediaVariantRepository.deleteByMediaFileIdAndVariantNameIn(mediaFileId, names);
+        mediaVariantRepository.saveAll(variants);
+    }
 
-            // Создаем оптимизированные варианты для социальных сетей
-            MediaVariant instagramVariant = imageProcessingService.optimizeForSocialNetwork(mediaFile, imageData, "instagram");
-            MediaVariant vkVariant = imageProcessingService.optimizeForSocialNetwork(mediaFile, imageData, "telegram");
+    /**
+     * Копирование записей о вариантах файла с тем же содержимым: объекты вариантов общие, новые не создаются
+     * @return количество скопированных вариантов
+     */
+    @Transactional
+    public int copyVariants(Long donorMediaFileId, MediaFile target) {
+        List<MediaVariant> copies = mediaVariantRepository.findByMediaFileId(donorMediaFileId).stream()
+                .map(donor -> {
+                    MediaVariant copy = new MediaVariant();
+                    copy.setMediaFile(target);
+                    copy.setVariantName(donor.getVariantName());
+                    copy.setStorageKey(donor.getStorageKey());
+                    copy.setWidth(donor.getWidth());
+                    copy.setHeight(donor.getHeight());
+                    copy.setSize(donor.getSize());
+                    copy.setMimeType(donor.getMimeType());
+                    copy.setProfileFingerprint(donor.getProfileFingerprint());
+                    return copy;
+                })
+                .toList();
+        return mediaVariantRepository.saveAll(copies).size();
+    }
 
-            // Обновляем статус файла на READY
-            mediaFile.setStatus(MediaStatus.READY);
-            mediaFileRepository.save(mediaFile);
+    /**
+     * Ключи стандартных вариантов оригинала (в том числе тех, чьих записей уже нет)
+     */
+    public List<String> getStandardVariantKeys(String originalKey) {
+        return variantProfileConfig.names().stream()
+                .map(name -> imageProcessingService.generateVariantKey(originalKey, name))
+                .toList();
+    }
 
-        } catch (Exception e) {
-            log.error("Error processing image variants for mediaId {}: {}", mediaFile.getId(), e.getMessage(), e);
-            mediaFile.setStatus(MediaStatus.ERROR);
-            mediaFileRepository.save(mediaFile);
+    /**
+     * Оригинал из локальной копии загрузки, иначе из хранилища
+     */
+    private byte[] readOriginal(MediaFile mediaFile, Path source) {
+        if (source != null) {
+            try {
+                return Files.readAllBytes(source);
+            } catch (IOException e) {
+                log.warn("Spooled original for mediaId {} is unavailable, falling back to storage: {}",
+                        mediaFile.getId(), e.getMessage());
+            }
         }
+        return mediaStorageService.getFile(mediaFile.getStorageKey());
     }
 
     /**
@@ -71,30 +172,102 @@ public class MediaVariantService {
     }
 
     /**
-     *  Получение содержимого варианта
+     * Варианты для набора файлов одним запросом
+     */
+    public Map<Long, List<MediaVariant>> getAllVariantsByFileIds(Collection<Long> mediaFileIds) {
+        return mediaVariantRepository.findByMediaFileIdIn(mediaFileIds).stream()
+                .collect(Collectors.groupingBy(variant -> variant.getMediaFile().getId()));
+    }
+
+    /**
+     *  Получение содержимого варианта (потоково, с поддержкой Range)
+     */
+    public ResponseEntity<StreamingResponseBody> getVariantContent(Long mediaId, String variantName, HttpHeaders requestHeaders) {
+        // Отсутствующий вариант удаленного файла не генерируется: generate проверяет статус и отвечает 404
+        MediaVariant variant = mediaVariantRepository.findServable(mediaId, variantName)
+                .orElseGet(() -> materialize(mediaId, variantName));
+        // Записи до реестра профилей не хранят тип - это всегда JPEG
+        String contentType = variant.getMimeType() != null ? variant.getMimeType() : "image/jpeg";
+        return mediaDeliveryService.deliver(variant.getStorageKey(), null, contentType, MediaType.IMAGE,
+                variant.getSize(), true, requestHeaders);
+    }
+
+    /**
+     * Генерация отсутствующего варианта при первом запросе. Параллельные запросы того же варианта
+     * ждут одно вычисление; между экземплярами сервиса дубликаты отсекает уникальный ключ (media_id, variantName)
      */
-    public Resource getVariantContent(Long mediaId, String variantName) {
-        MediaVariant variant = mediaVariantRepository.findByMediaFileIdAndVariantName(mediaId, variantName)
+    private MediaVariant materialize(Long mediaId, String variantName) {
+        String key = mediaId + ":" + variantName;
+        CompletableFuture<MediaVariant> flight = new CompletableFuture<>();
+        CompletableFuture<MediaVariant> existing = materializing.putIfAbsent(key, flight);
+        if (existing != null) {
+            meterRegistry.counter("media.variant.materialize", "result", "coalesced").increment();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+
+        try {
+            MediaVariant variant = generate(mediaId, variantName);
+            flight.complete(variant);
+            return variant;
+        } catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            materializing.remove(key, flight);
+        }
+    }
+
+    private MediaVariant generate(Long mediaId, String variantName) {
+        // Предыдущая генерация могла завершиться между поиском варианта и входом в single-flight
+        Optional<MediaVariant> ready = mediaVariantRepository.findServable(mediaId, variantName);
+        if (ready.isPresent()) {
+            return ready.get();
+        }
+
+        // Генерируем только для готовых файлов: UPLOADING еще без оригинала, PROCESSING строит варианты сам
+        MediaFile mediaFile = mediaFileRepository.findByIdAndStatusNot(mediaId, MediaStatus.DELETED)
+                .filter(file -> file.getStatus() == MediaStatus.READY)
+                .orElseThrow(() -> new EntityNotFoundException(
+                        "Variant " + variantName + " not found for media with id: " + mediaId));
+        VariantSpec spec = variantProfileConfig.spec(variantName, mediaFile.getMediaType())
                 .orElseThrow(() -> new EntityNotFoundException(
                         "Variant " + variantName + " not found for media with id: " + mediaId));
 
-        // Получаем файл из хранилища
-        byte[] content = mediaStorageService.getFile(variant.getStorageKey());
+        byte[] imageData = mediaStorageService.getFile(mediaFile.getStorageKey());
+        try {
+            MediaVariant variant = imageProcessingService.createVariants(mediaFile, imageData, List.of(spec)).get(0);
+            meterRegistry.counter("media.variant.materialize", "result", "computed").increment();
+            log.info("Variant {} for mediaId {} generated on demand", variantName, mediaId);
+            return variant;
+        } catch (DataIntegrityViolationException e) {
+            // Вариант уже сохранил другой экземпляр; объект по тому же ключу с тем же содержимым
+            return getVariantByNameAndFileId(mediaId, variantName);
+        }
+    }
 
-        // Создаем ресурс для возврата
-        return new ByteArrayResource(content);
+    /**
+     * Ключи вариантов набора файлов без загрузки сущностей
+     */
+    public List<VariantKeyRow> getVariantKeysByFileIds(Collection<Long> mediaFileIds) {
+        return mediaVariantRepository.findKeyRowsByMediaFileIds(mediaFileIds);
     }
 
     /**
-     * Удаление всех вариантов файла
+     * Удаление строк вариантов набора файлов (объекты в хранилище удаляются отдельно)
      */
     @Transactional
-    public void deleteVariantsByMediaFileId(Long mediaFileId) {
-        List<MediaVariant> variants = mediaVariantRepository.findByMediaFileId(mediaFileId);
-        for (MediaVariant variant : variants) {
-            mediaStorageService.deleteFile(variant.getStorageKey());
-        }
+    public void deleteVariantRowsByMediaFileIds(Collection<Long> mediaFileIds) {
+        mediaVariantRepository.deleteByMediaFileIds(mediaFileIds);
+    }
 
-        mediaVariantRepository.deleteByMediaFileId(mediaFileId);
+    /**
+     * Удаление строк вариантов по ключам объектов (сверка с хранилищем); строки моложе createdBefore не трогаются
+     */
+    public int deleteVariantRowsByStorageKeys(Collection<String> storageKeys, LocalDateTime createdBefore) {
+        return mediaVariantRepository.deleteByStorageKeys(storageKeys, createdBefore);
     }
 }
@@ -0,0 +1,101 @@
+package org.ithub.mediastorageservice.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Кэш presigned-ссылок по storageKey. Ссылка переиспользуется, пока до ее истечения
+ * остается больше safety-margin; размер ограничен, вытесняются давно не запрошенные ключи (LRU)
+ */
+@Slf4j
+@Service
+public class PresignedUrlCache {
+    private final MediaStorageService mediaStorageService;
+    private final int expiryMinutes;
+    private final Duration safetyMargin;
+    private final Map<String, CachedUrl> cache;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public PresignedUrlCache(MediaStorageService mediaStorageService,
+                             MeterRegistry meterRegistry,
+                             @Value("${media.presigned-url.expiry-minutes:60}") int expiryMinutes,
+                             @Value("${media.presigned-url.safety-margin-minutes:10}") int safetyMarginMinutes,
+                             @Value("${media.presigned-url.max-entries:10000}") int maxEntries) {
+        if (safetyMarginMinutes >= expiryMinutes) {
+            throw new IllegalArgumentException("media.presigned-url.safety-margin-minutes must be less than expiry-minutes");
+        }
+        this.mediaStorageService = mediaStorageService;
+        this.expiryMinutes = expiryMinutes;
+        this.safetyMargin = Duration.ofMinutes(safetyMarginMinutes);
+
+        this.hits = meterRegistry.counter("media.presigned_url.cache", "result", "hit");
+        this.misses = meterRegistry.counter("media.presigned_url.cache", "result", "miss");
+        this.evictions = meterRegistry.counter("media.presigned_url.cache.evictions");
+
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedUrl> eldest) {
+                boolean evict = size() > maxEntries;
+                if (evict) {
+                    evictions.increment();
+                }
+                return evict;
+            }
+        };
+        Gauge.builder("media.presigned_url.cache.size", this, PresignedUrlCache::size)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Получение ссылки из кэша или подпись новой
+     */
+    public String getUrl(String storageKey) {
+        Instant now = Instant.now();
+        synchronized (cache) {
+            CachedUrl cached = cache.get(storageKey);
+            if (cached != null && now.isBefore(cached.reuseUntil())) {
+                hits.increment();
+                return cached.url();
+            }
+        }
+
+        // Подпись (HMAC) выполняется вне блокировки
+        misses.increment();
+        String url = mediaStorageService.getPresignedUrl(storageKey, expiryMinutes);
+        Instant reuseUntil = now.plus(Duration.ofMinutes(expiryMinutes)).minus(safetyMargin);
+        synchronized (cache) {
+            cache.put(storageKey, new CachedUrl(url, reuseUntil));
+        }
+        return url;
+    }
+
+    /**
+     * Сброс ссылки для удаленного объекта
+     */
+    public void invalidate(String storageKey) {
+        synchronized (cache) {
+            cache.remove(storageKey);
+        }
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    private record CachedUrl(String url, Instant reuseUntil) {
+    }
+}
@@ -0,0 +1,138 @@
+package org.ithub.mediastorageservice.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.ithub.mediastorageservice.config.VariantProfileConfig;
+import org.ithub.mediastorageservice.exception.ProcessingQueueFullException;
+import org.ithub.mediastorageservice.model.MediaFile;
+import org.ithub.mediastorageservice.repository.MediaFileRepository;
+import org.ithub.mediastorageservice.repository.MediaVariantRepository;
+import org.ithub.mediastorageservice.repository.MediaVariantRepository.VariantKeyRow;
+import org.ithub.mediastorageservice.repository.MediaVariantRepository.VariantProfileRow;
+import org.ithub.mediastorageservice.util.VariantSpec;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Приведение вариантов к реестру профилей: файлы обходятся порциями по id, для каждого
+ * перестраиваются только профили, у которых изменился отпечаток (или варианта еще нет),
+ * а варианты удаленных из реестра профилей удаляются вместе с объектами
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class VariantRegenerationService {
+    private final MediaFileRepository mediaFileRepository;
+    private final MediaVariantRepository mediaVariantRepository;
+    private final MediaProcessingService mediaProcessingService;
+    private final MediaStorageService mediaStorageService;
+    private final PresignedUrlCache presignedUrlCache;
+    private final VariantProfileConfig variantProfileConfig;
+
+    // Последний проверенный id; при заполненной очереди обработки следующий проход продолжит с него
+    private long cursor;
+    // Реестр не меняется без перезапуска, поэтому после полного прохода проверять больше нечего
+    private volatile boolean completed;
+
+    @Scheduled(fixedDelayString = "${media.variants.regeneration-interval:PT10M}")
+    public void regenerateStale() {
+        if (completed) {
+            return;
+        }
+        try {
+            int submitted = 0;
+            List<MediaFile> batch;
+            do {
+                batch = mediaFileRepository.findReadyImagesAfter(cursor,
+                        Limit.of(variantProfileConfig.getRegenerationBatchSize()));
+                if (batch.isEmpty()) {
+                    break;
+                }
+                submitted += regenerateBatch(batch);
+            } while (batch.size() == variantProfileConfig.getRegenerationBatchSize());
+
+            completed = true;
+            log.info("Variant profile check completed, {} files resubmitted in the last pass", submitted);
+        } catch (ProcessingQueueFullException e) {
+            log.info("Processing queue is full, variant profile check paused at mediaId {}", cursor);
+        } catch (Exception e) {
+            log.error("Error regenerating stale variants: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Проверка одной порции файлов
+     * @return количество файлов, поставленных на перестроение
+     */
+    private int regenerateBatch(List<MediaFile> batch) {
+        Set<Long> ids = new LinkedHashSet<>();
+        batch.forEach(file -> ids.add(file.getId()));
+        removeObsoleteVariants(ids);
+
+        // Текущие пары (имя, отпечаток) и имена вариантов по файлам
+        Map<Long, Set<String>> current = new HashMap<>();
+        Map<Long, Set<String>> names = new HashMap<>();
+        for (VariantProfileRow row : mediaVariantRepository.findProfileRowsByMediaFileIds(ids)) {
+            current.computeIfAbsent(row.getMediaFileId(), id -> new HashSet<>())
+                    .add(row.getVariantName() + "|" + row.getProfileFingerprint());
+            names.computeIfAbsent(row.getMediaFileId(), id -> new HashSet<>()).add(row.getVariantName());
+        }
+
+        int submitted = 0;
+        for (MediaFile file : batch) {
+            Set<String> existing = current.getOrDefault(file.getId(), Set.of());
+            Set<String> built = names.getOrDefault(file.getId(), Set.of());
+            Set<String> stale = new HashSet<>();
+            for (VariantSpec spec : variantProfileConfig.specsFor(file.getMediaType())) {
+                // Ленивые варианты, которых еще нет, строятся при первом запросе, а не проходом
+                boolean expected = variantProfileConfig.isEager(spec.getName()) || built.contains(spec.getName());
+                if (expected && !existing.contains(spec.getName() + "|" + spec.fingerprint())) {
+                    stale.add(spec.getName());
+                }
+            }
+            if (!stale.isEmpty()) {
+                // Исключение о заполненной очереди прерывает проход, курсор остается перед этим файлом,
+                // а сам файл не меняется и продолжает отдаваться со старыми вариантами
+                mediaProcessingService.submitRegeneration(file, stale);
+                submitted++;
+            }
+            cursor = file.getId();
+        }
+        return submitted;
+    }
+
+    /**
+     * Удаление вариантов профилей, которых больше нет в реестре. Объекты удаляются,
+     * только если на них не ссылаются варианты других файлов с тем же содержимым
+     */
+    private void removeObsoleteVariants(Set<Long> ids) {
+        Set<String> names = variantProfileConfig.names();
+        List<VariantKeyRow> rows = mediaVariantRepository.findKeyRowsByMediaFileIdsAndVariantNameNotIn(ids, names);
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        mediaVariantRepository.deleteByMediaFileIdsAndVariantNameNotIn(ids, names);
+        Set<String> keys = new HashSet<>();
+        rows.forEach(row -> keys.add(row.getStorageKey()));
+        mediaVariantRepository.findReferencedStorageKeys(keys).forEach(keys::remove);
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        Set<String> failed = mediaStorageService.deleteFiles(keys);
+        keys.forEach(presignedUrlCache::invalidate);
+        if (!failed.isEmpty()) {
+            log.warn("Could not delete {} obsolete variant objects, left for reconciliation", failed.size());
+        }
+        log.info("Removed {} variants of profiles no longer in the registry", rows.size());
+    }
+}
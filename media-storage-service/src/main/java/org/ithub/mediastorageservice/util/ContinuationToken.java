@@ -0,0 +1,36 @@
+package org.ithub.mediastorageservice.util;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.springframework.data.domain.Sort;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+/**
+ * Непрозрачный токен keyset-пагинации: позиция последней выданной записи (createdAt, id) и направление
+ */
+@Data
+@AllArgsConstructor
+public class ContinuationToken {
+    private LocalDateTime createdAt;
+    private long id;
+    private Sort.Direction direction;
+
+    public String encode() {
+        String raw = direction.name() + "|" + createdAt + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static ContinuationToken decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|");
+            return new ContinuationToken(LocalDateTime.parse(parts[1]), Long.parseLong(parts[2]),
+                    Sort.Direction.valueOf(parts[0]));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid continuation token", e);
+        }
+    }
+}
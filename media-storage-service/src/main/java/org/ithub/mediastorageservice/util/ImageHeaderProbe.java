@@ -0,0 +1,147 @@
+package org.ithub.mediastorageservice.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.w3c.dom.Node;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.Optional;
+
+@Slf4j
+@Component
+public class ImageHeaderProbe {
+    private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+    private static final int APP1_MARKER = 0xE1;
+    private static final int ORIENTATION_TAG = 0x0112;
+
+    /**
+     * Чтение размеров, EXIF-ориентации и цветовой модели только из заголовка контейнера
+     */
+    public Optional<ImageProbeResult> probe(InputStream inputStream) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(inputStream)) {
+            if (iis == null) {
+                return Optional.empty();
+            }
+
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                return Optional.empty();
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, false);
+
+                ImageTypeSpecifier type = reader.getRawImageType(0);
+                if (type == null) {
+                    Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+                    type = types.hasNext() ? types.next() : null;
+                }
+                ColorModel colorModel = type != null ? type.getColorModel() : null;
+
+                return Optional.of(ImageProbeResult.builder()
+                        .formatName(reader.getFormatName())
+                        .width(reader.getWidth(0))
+                        .height(reader.getHeight(0))
+                        .orientation(readOrientation(reader))
+                        .colorModel(colorModel != null ? describe(colorModel.getColorSpace()) : null)
+                        .hasAlpha(colorModel != null && colorModel.hasAlpha())
+                        .build());
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * EXIF Orientation из сегмента APP1 (только JPEG); метаданные читаются до начала скана
+     */
+    private int readOrientation(ImageReader reader) {
+        try {
+            IIOMetadata metadata = reader.getImageMetadata(0);
+            if (metadata == null || !JPEG_METADATA_FORMAT.equals(metadata.getNativeMetadataFormatName())) {
+                return 1;
+            }
+
+            Node root = metadata.getAsTree(JPEG_METADATA_FORMAT);
+            for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (!"markerSequence".equals(child.getNodeName())) {
+                    continue;
+                }
+                for (Node marker = child.getFirstChild(); marker != null; marker = marker.getNextSibling()) {
+                    if (marker instanceof IIOMetadataNode node
+                            && "unknown".equals(node.getNodeName())
+                            && String.valueOf(APP1_MARKER).equals(node.getAttribute("MarkerTag"))
+                            && node.getUserObject() instanceof byte[] data) {
+                        int orientation = parseExifOrientation(data);
+                        if (orientation > 0) {
+                            return orientation;
+                        }
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("Could not read EXIF orientation: {}", e.getMessage());
+        }
+        return 1;
+    }
+
+    /**
+     * Разбор IFD0 TIFF-структуры внутри APP1 "Exif\0\0"
+     */
+    private int parseExifOrientation(byte[] data) {
+        if (data.length < 14 || data[0] != 'E' || data[1] != 'x' || data[2] != 'i' || data[3] != 'f') {
+            return -1;
+        }
+
+        int tiff = 6;
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (data[tiff] == 'I' && data[tiff + 1] == 'I') {
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (data[tiff] == 'M' && data[tiff + 1] == 'M') {
+            buffer.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            return -1;
+        }
+
+        int ifd = tiff + buffer.getInt(tiff + 4);
+        if (ifd + 2 > data.length) {
+            return -1;
+        }
+
+        int entries = buffer.getShort(ifd) & 0xFFFF;
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > data.length) {
+                break;
+            }
+            if ((buffer.getShort(entry) & 0xFFFF) == ORIENTATION_TAG) {
+                int value = buffer.getShort(entry + 8) & 0xFFFF;
+                return value >= 1 && value <= 8 ? value : -1;
+            }
+        }
+        return -1;
+    }
+
+    private String describe(ColorSpace colorSpace) {
+        return switch (colorSpace.getType()) {
+            case ColorSpace.TYPE_RGB -> "RGB";
+            case ColorSpace.TYPE_GRAY -> "GRAY";
+            case ColorSpace.TYPE_CMYK -> "CMYK";
+            case ColorSpace.TYPE_YCbCr -> "YCbCr";
+            default -> "TYPE_" + colorSpace.getType();
+        };
+    }
+}
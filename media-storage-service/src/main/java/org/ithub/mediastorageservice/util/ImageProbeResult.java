@@ -0,0 +1,19 @@
+package org.ithub.mediastorageservice.util;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Результат чтения заголовка изображения (без декодирования пикселей)
+ */
+@Data
+@Builder
+public class ImageProbeResult {
+    private String formatName;
+    private int width;
+    private int height;
+    // EXIF Orientation (1..8), 1 - если тег отсутствует
+    private int orientation;
+    private String colorModel;
+    private boolean hasAlpha;
+}
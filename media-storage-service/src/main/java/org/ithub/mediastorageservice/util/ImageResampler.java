@@ -0,0 +1,252 @@
+package org.ithub.mediastorageservice.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Уменьшение изображений без Graphics2D: последовательные уменьшения вдвое (усреднение 2x2),
+ * затем усреднение по площади до точного размера. Работает с массивами int RGB,
+ * строки делятся на полосы, которые обрабатываются параллельно.
+ * Прозрачность сводится к черному фону - как при отрисовке в TYPE_INT_RGB
+ */
+public final class ImageResampler {
+    // Строк в одной полосе параллельной обработки
+    private static final int STRIPE_ROWS = 32;
+
+    private ImageResampler() {
+    }
+
+    /**
+     * Уменьшение до (targetWidth x targetHeight); оба размера не больше исходных
+     */
+    public static BufferedImage downscale(BufferedImage source, int targetWidth, int targetHeight) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (targetWidth > width || targetHeight > height) {
+            throw new IllegalArgumentException("ImageResampler only downscales: " + width + "x" + height
+                    + " -> " + targetWidth + "x" + targetHeight);
+        }
+
+        int[] pixels = readRgb(source);
+        while (width / 2 >= targetWidth && height / 2 >= targetHeight) {
+            pixels = halve(pixels, width, height);
+            width /= 2;
+            height /= 2;
+        }
+        if (width != targetWidth) {
+            pixels = areaAverageRows(pixels, width, height, targetWidth);
+            width = targetWidth;
+        }
+        if (height != targetHeight) {
+            pixels = areaAverageColumns(pixels, width, height, targetHeight);
+        }
+        return toImage(pixels, targetWidth, targetHeight);
+    }
+
+    /**
+     * Пиксели изображения в виде RGB без альфа-канала (цвет умножен на альфу).
+     * TYPE_INT_RGB читается напрямую из буфера без копирования (массив только читается),
+     * TYPE_3BYTE_BGR (типичный результат декодирования JPEG) - из байтового буфера; остальное через getRGB
+     */
+    private static int[] readRgb(BufferedImage source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        WritableRaster raster = source.getRaster();
+        boolean plain = raster.getParent() == null && raster.getSampleModelTranslateX() == 0
+                && raster.getSampleModelTranslateY() == 0;
+
+        if (plain && source.getType() == BufferedImage.TYPE_INT_RGB
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel model
+                && model.getScanlineStride() == width && raster.getDataBuffer().getNumBanks() == 1
+                && raster.getDataBuffer().getOffset() == 0) {
+            return ((DataBufferInt) raster.getDataBuffer()).getData();
+        }
+
+        if (plain && source.getType() == BufferedImage.TYPE_3BYTE_BGR
+                && raster.getSampleModel() instanceof PixelInterleavedSampleModel model
+                && model.getScanlineStride() == width * 3 && model.getPixelStride() == 3
+                && raster.getDataBuffer().getOffset() == 0) {
+            byte[] bytes = ((DataBufferByte) raster.getDataBuffer()).getData();
+            int[] pixels = new int[width * height];
+            stripes(height, (from, to) -> {
+                for (int i = from * width, j = i * 3; i < to * width; i++, j += 3) {
+                    pixels[i] = (bytes[j + 2] & 0xFF) << 16 | (bytes[j + 1] & 0xFF) << 8 | (bytes[j] & 0xFF);
+                }
+            });
+            return pixels;
+        }
+
+        boolean alpha = source.getColorModel().hasAlpha();
+        int[] pixels = new int[width * height];
+        stripes(height, (from, to) -> {
+            source.getRGB(0, from, width, to - from, pixels, from * width, width);
+            if (alpha) {
+                for (int i = from * width; i < to * width; i++) {
+                    pixels[i] = premultiply(pixels[i]);
+                }
+            }
+        });
+        return pixels;
+    }
+
+    /**
+     * Уменьшение вдвое: каждый пиксель результата - среднее блока 2x2 (нечетный край отбрасывается)
+     */
+    private static int[] halve(int[] src, int width, int height) {
+        int dstWidth = width / 2;
+        int dstHeight = height / 2;
+        int[] dst = new int[dstWidth * dstHeight];
+        stripes(dstHeight, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                int top = 2 * y * width;
+                int bottom = top + width;
+                int out = y * dstWidth;
+                for (int x = 0; x < dstWidth; x++) {
+                    int a = src[top + 2 * x];
+                    int b = src[top + 2 * x + 1];
+                    int c = src[bottom + 2 * x];
+                    int d = src[bottom + 2 * x + 1];
+                    int r = ((a >> 16 & 0xFF) + (b >> 16 & 0xFF) + (c >> 16 & 0xFF) + (d >> 16 & 0xFF) + 2) >> 2;
+                    int g = ((a >> 8 & 0xFF) + (b >> 8 & 0xFF) + (c >> 8 & 0xFF) + (d >> 8 & 0xFF) + 2) >> 2;
+                    int bl = ((a & 0xFF) + (b & 0xFF) + (c & 0xFF) + (d & 0xFF) + 2) >> 2;
+                    dst[out + x] = r << 16 | g << 8 | bl;
+                }
+            }
+        });
+        return dst;
+    }
+
+    /**
+     * Усреднение по площади вдоль строк: width -> dstWidth
+     */
+    private static int[] areaAverageRows(int[] src, int width, int height, int dstWidth) {
+        Weights weights = Weights.of(width, dstWidth);
+        int[] dst = new int[dstWidth * height];
+        stripes(height, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                int row = y * width;
+                for (int x = 0; x < dstWidth; x++) {
+                    float r = 0;
+                    float g = 0;
+                    float b = 0;
+                    float[] w = weights.values[x];
+                    int start = row + weights.starts[x];
+                    for (int k = 0; k < w.length; k++) {
+                        int p = src[start + k];
+                        r += (p >> 16 & 0xFF) * w[k];
+                        g += (p >> 8 & 0xFF) * w[k];
+                        b += (p & 0xFF) * w[k];
+                    }
+                    dst[y * dstWidth + x] = pack(r, g, b);
+                }
+            }
+        });
+        return dst;
+    }
+
+    /**
+     * Усреднение по площади вдоль столбцов: height -> dstHeight
+     */
+    private static int[] areaAverageColumns(int[] src, int width, int height, int dstHeight) {
+        Weights weights = Weights.of(height, dstHeight);
+        int[] dst = new int[width * dstHeight];
+        stripes(dstHeight, (from, to) -> {
+            float[] r = new float[width];
+            float[] g = new float[width];
+            float[] b = new float[width];
+            for (int y = from; y < to; y++) {
+                Arrays.fill(r, 0);
+                Arrays.fill(g, 0);
+                Arrays.fill(b, 0);
+                float[] w = weights.values[y];
+                // Строки источника складываются целиком - последовательный доступ к памяти
+                for (int k = 0; k < w.length; k++) {
+                    int row = (weights.starts[y] + k) * width;
+                    float weight = w[k];
+                    for (int x = 0; x < width; x++) {
+                        int p = src[row + x];
+                        r[x] += (p >> 16 & 0xFF) * weight;
+                        g[x] += (p >> 8 & 0xFF) * weight;
+                        b[x] += (p & 0xFF) * weight;
+                    }
+                }
+                int out = y * width;
+                for (int x = 0; x < width; x++) {
+                    dst[out + x] = pack(r[x], g[x], b[x]);
+                }
+            }
+        });
+        return dst;
+    }
+
+    private static BufferedImage toImage(int[] pixels, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        System.arraycopy(pixels, 0, data, 0, pixels.length);
+        return image;
+    }
+
+    private static int premultiply(int argb) {
+        int a = argb >>> 24;
+        if (a == 0xFF) {
+            return argb & 0xFFFFFF;
+        }
+        int r = ((argb >> 16 & 0xFF) * a + 127) / 255;
+        int g = ((argb >> 8 & 0xFF) * a + 127) / 255;
+        int b = ((argb & 0xFF) * a + 127) / 255;
+        return r << 16 | g << 8 | b;
+    }
+
+    private static int pack(float r, float g, float b) {
+        return clamp(r) << 16 | clamp(g) << 8 | clamp(b);
+    }
+
+    private static int clamp(float value) {
+        int v = Math.round(value);
+        return v < 0 ? 0 : Math.min(v, 255);
+    }
+
+    /**
+     * Параллельная обработка строк [0, rows) полосами по STRIPE_ROWS
+     */
+    private static void stripes(int rows, StripeTask task) {
+        int count = (rows + STRIPE_ROWS - 1) / STRIPE_ROWS;
+        IntStream.range(0, count).parallel()
+                .forEach(stripe -> task.run(stripe * STRIPE_ROWS, Math.min(rows, (stripe + 1) * STRIPE_ROWS)));
+    }
+
+    private interface StripeTask {
+        void run(int fromRow, int toRow);
+    }
+
+    /**
+     * Веса усреднения по площади: пиксель результата i покрывает отрезок [i*scale, (i+1)*scale)
+     * источника, вес каждого исходного пикселя - доля его длины внутри отрезка
+     */
+    private record Weights(int[] starts, float[][] values) {
+        static Weights of(int srcSize, int dstSize) {
+            double scale = (double) srcSize / dstSize;
+            int[] starts = new int[dstSize];
+            float[][] values = new float[dstSize][];
+            for (int i = 0; i < dstSize; i++) {
+                double left = i * scale;
+                double right = Math.min(srcSize, (i + 1) * scale);
+                int start = (int) Math.floor(left);
+                int end = Math.min(srcSize, (int) Math.ceil(right));
+                float[] w = new float[end - start];
+                for (int j = start; j < end; j++) {
+                    w[j - start] = (float) ((Math.min(right, j + 1) - Math.max(left, j)) / scale);
+                }
+                starts[i] = start;
+                values[i] = w;
+            }
+            return new Weights(starts, values);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.ithub.mediastorageservice.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Кодирование вариантов в JPEG с заданным качеством, оптимизированными таблицами Хаффмана
+ * и (для больших вариантов) прогрессивной разверткой. В режиме бюджета качество подбирается
+ * двоичным поиском так, чтобы результат поместился в maxBytes.
+ * ImageWriter переиспользуются между запросами через пул
+ */
+@Slf4j
+@Component
+public class JpegEncoder {
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+    // Нижняя граница качества при подгонке под бюджет
+    private static final float MIN_QUALITY = 0.3f;
+    // Шагов двоичного поиска: точность качества ~0.01
+    private static final int SEARCH_STEPS = 6;
+
+    private final BlockingQueue<ImageWriter> writers = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /**
+     * Кодирование с заданным качеством; если задан maxBytes и результат не помещается,
+     * качество понижается (не ниже MIN_QUALITY)
+     */
+    public byte[] encode(BufferedImage image, float quality, boolean progressive, long maxBytes) throws IOException {
+        byte[] encoded = encode(image, quality, progressive);
+        if (maxBytes <= 0 || encoded.length <= maxBytes) {
+            return encoded;
+        }
+
+        // Ищем наибольшее качество, при котором результат помещается в бюджет
+        float low = MIN_QUALITY;
+        float high = quality;
+        byte[] best = null;
+        for (int step = 0; step < SEARCH_STEPS; step++) {
+            float mid = (low + high) / 2;
+            byte[] candidate = encode(image, mid, progressive);
+            if (candidate.length <= maxBytes) {
+                best = candidate;
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        if (best == null) {
+            best = encode(image, MIN_QUALITY, progressive);
+            if (best.length > maxBytes) {
+                log.warn("JPEG of {}x{} does not fit {} bytes even at quality {}: {} bytes",
+                        image.getWidth(), image.getHeight(), maxBytes, MIN_QUALITY, best.length);
+            }
+        }
+        return best;
+    }
+
+    private byte[] encode(BufferedImage image, float quality, boolean progressive) throws IOException {
+        ImageWriter writer = acquire();
+        try {
+            JPEGImageWriteParam param = (JPEGImageWriteParam) writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            param.setOptimizeHuffmanTables(true);
+            param.setProgressiveMode(progressive ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            try (MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(outputStream)) {
+                writer.setOutput(output);
+                writer.write(null, new IIOImage(image, null, null), param);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            release(writer);
+        }
+    }
+
+    private ImageWriter acquire() {
+        ImageWriter writer = writers.poll();
+        if (writer != null) {
+            return writer;
+        }
+        Iterator<ImageWriter> available = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!available.hasNext()) {
+            throw new IllegalStateException("No JPEG ImageWriter available");
+        }
+        return available.next();
+    }
+
+    /**
+     * Возврат в пул; сверх размера пула writer освобождается
+     */
+    private void release(ImageWriter writer) {
+        writer.reset();
+        if (!writers.offer(writer)) {
+            writer.dispose();
+        }
+    }
+}
@@ -2,12 +2,16 @@ package org.ithub.mediastorageservice.util;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.ithub.mediastorageservice.config.VariantProfileConfig;
 import org.ithub.mediastorageservice.dto.MediaFileDTO;
+import org.ithub.mediastorageservice.enums.MediaStatus;
 import org.ithub.mediastorageservice.model.MediaFile;
 import org.ithub.mediastorageservice.model.MediaVariant;
-import org.ithub.mediastorageservice.service.MediaStorageService;
 import org.ithub.mediastorageservice.service.MediaTagService;
 import org.ithub.mediastorageservice.service.MediaVariantService;
+import org.ithub.mediastorageservice.service.PresignedUrlCache;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.stereotype.Component;
 
 import java.util.HashMap;
@@ -21,26 +25,67 @@ import java.util.Set;
 public class MediaFileMapper {
     private final MediaTagService mediaTagService;
     private final MediaVariantService mediaVariantService;
-    private final MediaStorageService mediaStorageService;
+    private final PresignedUrlCache presignedUrlCache;
+    private final VariantProfileConfig variantProfileConfig;
 
     /**
      * Конвертация MediaFile в MediaFileDTO
      */
     public MediaFileDTO convertToDTO(MediaFile mediaFile) {
-        // Получаем теги для файла
-        Set<String> tags = mediaTagService.getTagsNameForFile(mediaFile.getId());
+        return convertToDTOs(List.of(mediaFile)).get(0);
+    }
+
+    /**
+     * Конвертация страницы файлов: теги и варианты всей страницы загружаются
+     * двумя IN-запросами вместо 2 запросов на каждый файл
+     */
+    public Page<MediaFileDTO> convertPage(Page<MediaFile> mediaFiles) {
+        List<MediaFileDTO> content = convertToDTOs(mediaFiles.getContent());
+        return new PageImpl<>(content, mediaFiles.getPageable(), mediaFiles.getTotalElements());
+    }
+
+    /**
+     * Конвертация списка файлов с пакетной загрузкой тегов и вариантов (порядок сохраняется)
+     */
+    public List<MediaFileDTO> convertToDTOs(List<MediaFile> mediaFiles) {
+        if (mediaFiles.isEmpty()) {
+            return List.of();
+        }
 
+        List<Long> ids = mediaFiles.stream()
+                .map(MediaFile::getId)
+                .toList();
+        Map<Long, Set<String>> tagsByFile = mediaTagService.getTagsNameForFiles(ids);
+        Map<Long, List<MediaVariant>> variantsByFile = mediaVariantService.getAllVariantsByFileIds(ids);
+
+        return mediaFiles.stream()
+                .map(mediaFile -> assemble(mediaFile,
+                        tagsByFile.getOrDefault(mediaFile.getId(), Set.of()),
+                        variantsByFile.getOrDefault(mediaFile.getId(), List.of())))
+                .toList();
+    }
+
+    private MediaFileDTO assemble(MediaFile mediaFile, Set<String> tags, List<MediaVariant> variants) {
         // Создаем временный URL для оригинального файла
-        String url = mediaStorageService.getPresignedUrl(mediaFile.getStorageKey(), 60);
+        String url = presignedUrlCache.getUrl(mediaFile.getStorageKey());
 
-        // Получаем все варианты файла с URL
-        List<MediaVariant> variants = mediaVariantService.getAllVariantsByFileId(mediaFile.getId());
+        // URL всех вариантов файла
         Map<String, String> variantUrls = new HashMap<>();
-
         for (MediaVariant variant : variants) {
-            String variantUrl = mediaStorageService.getPresignedUrl(variant.getStorageKey(), 60);
+            String variantUrl = presignedUrlCache.getUrl(variant.getStorageKey());
             variantUrls.put(variant.getVariantName(), variantUrl);
         }
+        // Еще не построенные ленивые варианты - отдельно от presigned-ссылок: путь к эндпоинту,
+        // который сгенерирует их при первом запросе
+        Map<String, String> onDemandVariantPaths = new HashMap<>();
+        if (mediaFile.getStatus() == MediaStatus.READY) {
+            for (VariantSpec spec : variantProfileConfig.specsFor(mediaFile.getMediaType())) {
+                if (!variantProfileConfig.isEager(spec.getName()) && !variantUrls.containsKey(spec.getName())) {
+                    onDemandVariantPaths.put(spec.getName(),
+                            "/media/files/" + mediaFile.getId() + "/variants/" + spec.getName());
+                }
+            }
+        }
 
         return MediaFileDTO.builder()
                 .id(mediaFile.getId())
@@ -50,6 +95,8 @@ public class MediaFileMapper {
                 .mimeType(mediaFile.getMimeType())
                 .width(mediaFile.getWidth())
                 .height(mediaFile.getHeight())
+                .orientation(mediaFile.getOrientation())
+                .colorModel(mediaFile.getColorModel())
                 .description(mediaFile.getMetadata())
                 .createdAt(mediaFile.getCreatedAt())
                 .updatedAt(mediaFile.getUpdatedAt())
@@ -57,6 +104,7 @@ public class MediaFileMapper {
                 .tags(tags)
                 .url(url)
                 .variantUrls(variantUrls)
+                .onDemandVariantPaths(onDemandVariantPaths)
                 .status(mediaFile.getStatus().toString())
                 .build();
     }
@@ -0,0 +1,98 @@
+package org.ithub.mediastorageservice.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Локальные временные копии загруженных файлов: из них считается хэш содержимого,
+ * выполняется загрузка в MinIO и фоновая обработка без повторного скачивания оригинала
+ */
+@Slf4j
+@Component
+public class MediaSpool {
+    private final Path directory;
+
+    public MediaSpool(@Value("${media.spool.directory:${java.io.tmpdir}/media-spool}") String directory) throws IOException {
+        this.directory = Files.createDirectories(Path.of(directory));
+    }
+
+    /**
+     * Временный файл и SHA-256 его содержимого (hex)
+     */
+    public record SpooledFile(Path path, String sha256) {
+    }
+
+    /**
+     * Сохранение содержимого загрузки во временный файл; хэш считается в том же проходе по потоку
+     */
+    public SpooledFile spool(MultipartFile file) throws IOException {
+        Path target = Files.createTempFile(directory, "upload-", ".tmp");
+        MessageDigest digest = newSha256();
+        try (InputStream is = new DigestInputStream(file.getInputStream(), digest)) {
+            Files.copy(is, target, StandardCopyOption.REPLACE_EXISTING);
+            return new SpooledFile(target, HexFormat.of().formatHex(digest.digest()));
+        } catch (IOException e) {
+            release(target);
+            throw e;
+        }
+    }
+
+    /**
+     * Пустой временный файл в каталоге spool (например, для сборки возобновляемой загрузки по частям)
+     */
+    public Path createTempFile(String prefix) throws IOException {
+        return Files.createTempFile(directory, prefix, ".tmp");
+    }
+
+    /**
+     * Хэш уже лежащего на диске файла; файл становится временной копией загрузки
+     */
+    public SpooledFile adopt(Path path) throws IOException {
+        MessageDigest digest = newSha256();
+        try (InputStream is = new DigestInputStream(Files.newInputStream(path), digest)) {
+            is.transferTo(OutputStream.nullOutputStream());
+        }
+        return new SpooledFile(path, HexFormat.of().formatHex(digest.digest()));
+    }
+
+    public void release(SpooledFile spooled) {
+        if (spooled != null) {
+            release(spooled.path());
+        }
+    }
+
+    /**
+     * Удаление временного файла (ошибки только логируются)
+     */
+    public void release(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete spooled file {}: {}", path, e.getMessage());
+        }
+    }
+
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package org.ithub.mediastorageservice.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.ithub.mediastorageservice.config.ProcessingConfig;
+import org.ithub.mediastorageservice.enums.ResampleMode;
+import org.ithub.mediastorageservice.exception.ProcessingQueueFullException;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Декодирование оригиналов с прореживанием (ImageReadParam.setSourceSubsampling): читается
+ * не больше пикселей, чем нужно наибольшему варианту. Одновременно декодированные изображения
+ * ограничены общим бюджетом памяти - задачи ждут в очереди, а не исчерпывают кучу.
+ * Бюджет считается в килобайтах и учитывает не только само изображение, но и рабочие копии ImageResampler
+ */
+@Slf4j
+@Component
+public class SubsampledImageDecoder {
+    // Один permit семафора - килобайт памяти
+    private static final int PERMIT_BYTES = 1024;
+    // Рабочие копии ImageResampler на пиксель декодированного изображения: int RGB копия (4 байта)
+    // и цепочка уменьшений вдвое, каждое в четыре раза меньше предыдущего (4/3 байта), с запасом
+    private static final int RESAMPLER_BYTES_PER_PIXEL = 6;
+    // Если формат не сообщает тип пикселей, считаем 4 байта (int ARGB)
+    private static final int DEFAULT_BYTES_PER_PIXEL = 4;
+
+    private final ProcessingConfig processingConfig;
+    private final int budget;
+    private final Semaphore memoryBudget;
+
+    private final Counter decodes;
+    private final Counter subsampledDecodes;
+    private final Counter rejections;
+
+    public SubsampledImageDecoder(ProcessingConfig processingConfig, MeterRegistry meterRegistry) {
+        this.processingConfig = processingConfig;
+        this.budget = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                processingConfig.getDecodeMemoryBudget().toBytes() / PERMIT_BYTES));
+        this.memoryBudget = new Semaphore(budget, true);
+
+        this.decodes = meterRegistry.counter("media.decode", "subsampled", "false");
+        this.subsampledDecodes = meterRegistry.counter("media.decode", "subsampled", "true");
+        this.rejections = meterRegistry.counter("media.decode.budget.rejections");
+        Gauge.builder("media.decode.budget.total", this, decoder -> (double) decoder.budget * PERMIT_BYTES)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("media.decode.budget.available", memoryBudget,
+                        semaphore -> (double) semaphore.availablePermits() * PERMIT_BYTES)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("media.decode.budget.queue", memoryBudget, Semaphore::getQueueLength)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Открытие изображения: читается только заголовок, пиксели декодируются в Source.decode
+     */
+    public Source open(byte[] imageData) throws IOException {
+        ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(imageData));
+        Iterator<ImageReader> readers = iis != null ? ImageIO.getImageReaders(iis) : null;
+        if (readers == null || !readers.hasNext()) {
+            if (iis != null) {
+                iis.close();
+            }
+            throw new IllegalArgumentException("Cannot read image data");
+        }
+
+        ImageReader reader = readers.next();
+        reader.setInput(iis, true, true);
+        return new Source(reader, iis);
+    }
+
+    /**
+     * Открытое изображение. Занятый бюджет возвращается в close(), поэтому декодированное
+     * изображение нельзя использовать после закрытия
+     */
+    public class Source implements AutoCloseable {
+        private final ImageReader reader;
+        private final ImageInputStream iis;
+        private final int width;
+        private final int height;
+        private int permits;
+
+        private Source(ImageReader reader, ImageInputStream iis) throws IOException {
+            this.reader = reader;
+            this.iis = iis;
+            try {
+                this.width = reader.getWidth(0);
+                this.height = reader.getHeight(0);
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * Декодирование с наибольшим целым шагом прореживания, при котором результат остается
+         * не меньше (targetWidth x targetHeight) * decodeOversample
+         */
+        public BufferedImage decode(int targetWidth, int targetHeight) throws IOException {
+            int oversample = Math.max(1, processingConfig.getDecodeOversample());
+            int step = Math.max(1, Math.min(width / Math.max(1, targetWidth * oversample),
+                    height / Math.max(1, targetHeight * oversample)));
+            long decodedWidth = (width + step - 1) / step;
+            long decodedHeight = (height + step - 1) / step;
+
+            // Изображение больше всего бюджета декодируется в одиночку
+            long bytes = decodedWidth * decodedHeight * bytesPerPixel();
+            acquire((int) Math.min(budget, (bytes + PERMIT_BYTES - 1) / PERMIT_BYTES));
+
+            ImageReadParam param = reader.getDefaultReadParam();
+            if (step > 1) {
+                param.setSourceSubsampling(step, step, 0, 0);
+                subsampledDecodes.increment();
+            } else {
+                decodes.increment();
+            }
+
+            BufferedImage image = reader.read(0, param);
+            if (image == null) {
+                throw new IIOException("Cannot decode image");
+            }
+            log.debug("Decoded {}x{} image as {}x{} (subsampling {})", width, height, image.getWidth(), image.getHeight(), step);
+            return image;
+        }
+
+        /**
+         * Байт на пиксель декодированного изображения вместе с копиями, которые делает уменьшение
+         */
+        private long bytesPerPixel() throws IOException {
+            ImageTypeSpecifier type = reader.getRawImageType(0);
+            int decoded = type != null
+                    ? Math.max(1, (type.getColorModel().getPixelSize() + 7) / 8)
+                    : DEFAULT_BYTES_PER_PIXEL;
+            // Graphics2D рисует сразу в изображение размера варианта, копий исходника не делает
+            return processingConfig.getResampleMode() == ResampleMode.PROGRESSIVE
+                    ? decoded + RESAMPLER_BYTES_PER_PIXEL
+                    : decoded;
+        }
+
+        private void acquire(int kilobytes) throws IOException {
+            try {
+                if (!memoryBudget.tryAcquire(kilobytes, processingConfig.getDecodeBudgetTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                    rejections.increment();
+                    throw new ProcessingQueueFullException("Image decode budget is exhausted, retry later");
+                }
+                permits += kilobytes;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IIOException("Interrupted while waiting for decode budget", e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (permits > 0) {
+                memoryBudget.release(permits);
+                permits = 0;
+            }
+            reader.dispose();
+            iis.close();
+        }
+    }
+}
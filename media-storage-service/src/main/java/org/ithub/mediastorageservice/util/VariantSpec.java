@@ -0,0 +1,44 @@
+package org.ithub.mediastorageservice.util;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.ithub.mediastorageservice.enums.FitMode;
+import org.ithub.mediastorageservice.enums.VariantFormat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+import java.util.Locale;
+
+/**
+ * Описание варианта изображения: имя и ограничивающий размер (0 - вычисляется по пропорциям),
+ * режим вписывания, формат и параметры кодирования: качество, прогрессивная развертка
+ * и бюджет размера (0 - без ограничения)
+ */
+@Data
+@AllArgsConstructor
+public class VariantSpec {
+    private static final float DEFAULT_QUALITY = 0.85f;
+
+    private String name;
+    private int width;
+    private int height;
+    private FitMode fit;
+    private VariantFormat format;
+    private float quality;
+    private boolean progressive;
+    private long maxBytes;
+
+    public VariantSpec(String name, int width, int height) {
+        this(name, width, height, FitMode.CONTAIN, VariantFormat.JPEG, DEFAULT_QUALITY, false, 0);
+    }
+
+    /**
+     * Отпечаток параметров, влияющих на результат: варианты с другим отпечатком устарели
+     */
+    public String fingerprint() {
+        String canonical = String.format(Locale.ROOT, "%d|%d|%s|%s|%.3f|%b|%d",
+                width, height, fit, format, quality, progressive, maxBytes);
+        byte[] digest = MediaSpool.newSha256().digest(canonical.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest, 0, 8);
+    }
+}
@@ -0,0 +1,21 @@
+-- Дедупликация по содержимому: несколько строк media_files / media_variants могут ссылаться на один объект.
+-- Hibernate (ddl-auto=update) не удаляет старые уникальные ограничения на storage_key - снимаем их вручную.
+-- Таблица media_blobs и колонка media_files.content_hash создаются Hibernate.
+
+do
+$$
+    declare
+        constraint_row record;
+    begin
+        for constraint_row in
+            select c.conrelid::regclass as table_name, c.conname
+            from pg_constraint c
+                     join pg_attribute a on a.attrelid = c.conrelid and a.attnum = any (c.conkey)
+            where c.contype = 'u'
+              and c.conrelid in ('media_files'::regclass, 'media_variants'::regclass)
+              and a.attname = 'storage_key'
+            loop
+                execute format('alter table %s drop constraint %I', constraint_row.table_name, constraint_row.conname);
+            end loop;
+    end
+$$;
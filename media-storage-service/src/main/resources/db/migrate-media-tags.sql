@@ -0,0 +1,20 @@
+-- Перенос тегов из старой таблицы media_tags в словарь tags и таблицу связей media_file_tags.
+-- Выполняется вручную один раз после старта новой версии (таблицы tags и media_file_tags создает Hibernate).
+-- В media_tags могли попасть строки обеих старых моделей: колонка name (сущность MediaTag)
+-- и колонка tag (коллекция MediaFile.tags), поэтому берутся обе.
+
+insert into tags (name)
+select distinct coalesce(name, tag)
+from media_tags
+where coalesce(name, tag) is not null
+on conflict (name) do nothing;
+
+insert into media_file_tags (media_id, tag_id)
+select distinct mt.media_id, t.id
+from media_tags mt
+         join tags t on t.name = coalesce(mt.name, mt.tag)
+         join media_files f on f.id = mt.media_id
+on conflict do nothing;
+
+-- После проверки переноса:
+-- drop table media_tags;
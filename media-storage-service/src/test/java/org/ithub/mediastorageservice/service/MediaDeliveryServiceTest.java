@@ -0,0 +1,180 @@
+package org.ithub.mediastorageservice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.minio.StatObjectResponse;
+import org.ithub.mediastorageservice.config.DeliveryConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Потоковая отдача через сервис: разбор Range (суффикс, открытый конец, несколько диапазонов, 416)
+ * и условие If-Range по ETag и по дате изменения
+ */
+class MediaDeliveryServiceTest {
+	private static final String KEY = "2024/01/02/video.mp4";
+	private static final String ETAG = "0123456789abcdef";
+	private static final ZonedDateTime LAST_MODIFIED = ZonedDateTime.of(2024, 1, 2, 3, 4, 5, 0, ZoneOffset.UTC);
+	private static final int SIZE = 1000;
+
+	private MediaStorageService storageService;
+	private MediaDeliveryService service;
+	private byte[] content;
+
+	@BeforeEach
+	void setUp() {
+		storageService = mock(MediaStorageService.class);
+		service = new MediaDeliveryService(storageService, mock(PresignedUrlCache.class), new DeliveryConfig(),
+				new SimpleMeterRegistry());
+
+		content = new byte[SIZE];
+		for (int i = 0; i < SIZE; i++) {
+			content[i] = (byte) i;
+		}
+		StatObjectResponse stat = mock(StatObjectResponse.class);
+		when(stat.size()).thenReturn((long) SIZE);
+		when(stat.etag()).thenReturn(ETAG);
+		when(stat.lastModified()).thenReturn(LAST_MODIFIED);
+		when(stat.contentType()).thenReturn("video/mp4");
+		when(storageService.statFile(KEY)).thenReturn(stat);
+		when(storageService.getFileStream(eq(KEY), eq(0L), isNull(), eq(ETAG)))
+				.thenAnswer(invocation -> new ByteArrayInputStream(content));
+		when(storageService.getFileStream(eq(KEY), anyLong(), anyLong(), eq(ETAG)))
+				.thenAnswer(invocation -> {
+					int offset = (int) (long) invocation.getArgument(1, Long.class);
+					int length = (int) (long) invocation.getArgument(2, Long.class);
+					return new ByteArrayInputStream(content, offset, length);
+				});
+	}
+
+	@Test
+	void noRangeReturnsWholeObject() throws IOException {
+		ResponseEntity<StreamingResponseBody> response = deliver(new HttpHeaders());
+
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		assertEquals(SIZE, response.getHeaders().getContentLength());
+		assertEquals("bytes", response.getHeaders().getFirst(HttpHeaders.ACCEPT_RANGES));
+		assertEquals("\"" + ETAG + "\"", response.getHeaders().getETag());
+		assertArrayEquals(content, body(response));
+	}
+
+	@Test
+	void suffixRangeReturnsLastBytes() throws IOException {
+		ResponseEntity<StreamingResponseBody> response = deliver(range("bytes=-100"));
+
+		assertPartial(response, 900, 999);
+	}
+
+	@Test
+	void openEndedRangeRunsToEndOfObject() throws IOException {
+		ResponseEntity<StreamingResponseBody> response = deliver(range("bytes=990-"));
+
+		assertPartial(response, 990, 999);
+	}
+
+	@Test
+	void rangePastEndIsClampedToObjectSize() throws IOException {
+		ResponseEntity<StreamingResponseBody> response = deliver(range("bytes=500-5000"));
+
+		assertPartial(response, 500, 999);
+	}
+
+	@Test
+	void multipleRangesFallBackToWholeObject() throws IOException {
+		ResponseEntity<StreamingResponseBody> response = deliver(range("bytes=0-9,20-29"));
+
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		assertNull(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+		assertArrayEquals(content, body(response));
+	}
+
+	@Test
+	void malformedRangeIsIgnored() {
+		assertEquals(HttpStatus.OK, deliver(range("bytes=abc")).getStatusCode());
+	}
+
+	@Test
+	void unsatisfiableRangeReturns416() {
+		ResponseEntity<StreamingResponseBody> response = deliver(range("bytes=2000-"));
+
+		assertEquals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatusCode());
+		assertEquals("bytes */" + SIZE, response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+		assertNull(response.getBody());
+	}
+
+	@Test
+	void ifRangeWithCurrentEtagServesRange() throws IOException {
+		HttpHeaders headers = range("bytes=0-9");
+		headers.set(HttpHeaders.IF_RANGE, "\"" + ETAG + "\"");
+
+		assertPartial(deliver(headers), 0, 9);
+	}
+
+	@Test
+	void ifRangeWithStaleOrWeakEtagServesWholeObject() {
+		for (String ifRange : new String[]{"\"other\"", "W/\"" + ETAG + "\""}) {
+			HttpHeaders headers = range("bytes=0-9");
+			headers.set(HttpHeaders.IF_RANGE, ifRange);
+
+			assertEquals(HttpStatus.OK, deliver(headers).getStatusCode(), ifRange);
+		}
+	}
+
+	@Test
+	void ifRangeDateIsComparedToLastModified() throws IOException {
+		HttpHeaders current = range("bytes=10-19");
+		current.set(HttpHeaders.IF_RANGE, DateTimeFormatter.RFC_1123_DATE_TIME.format(LAST_MODIFIED));
+		assertPartial(deliver(current), 10, 19);
+
+		HttpHeaders older = range("bytes=10-19");
+		older.set(HttpHeaders.IF_RANGE, DateTimeFormatter.RFC_1123_DATE_TIME.format(LAST_MODIFIED.minusSeconds(1)));
+		assertEquals(HttpStatus.OK, deliver(older).getStatusCode());
+
+		HttpHeaders garbage = range("bytes=10-19");
+		garbage.set(HttpHeaders.IF_RANGE, "yesterday");
+		assertEquals(HttpStatus.OK, deliver(garbage).getStatusCode());
+	}
+
+	private ResponseEntity<StreamingResponseBody> deliver(HttpHeaders requestHeaders) {
+		return service.deliver(KEY, "video.mp4", null, requestHeaders);
+	}
+
+	private void assertPartial(ResponseEntity<StreamingResponseBody> response, int start, int end) throws IOException {
+		assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+		assertEquals("bytes " + start + "-" + end + "/" + SIZE, response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+		assertEquals(end - start + 1, response.getHeaders().getContentLength());
+		assertArrayEquals(Arrays.copyOfRange(content, start, end + 1), body(response));
+	}
+
+	private static HttpHeaders range(String value) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(HttpHeaders.RANGE, value);
+		return headers;
+	}
+
+	private static byte[] body(ResponseEntity<StreamingResponseBody> response) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		response.getBody().writeTo(output);
+		return output.toByteArray();
+	}
+}
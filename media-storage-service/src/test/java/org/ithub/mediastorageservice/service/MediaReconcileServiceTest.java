@@ -0,0 +1,265 @@
+package org.ithub.mediastorageservice.service;
+
+import io.minio.StatObjectResponse;
+import io.minio.messages.Item;
+import org.ithub.mediastorageservice.config.ReconcileConfig;
+import org.ithub.mediastorageservice.dto.ReconcileReportDTO;
+import org.ithub.mediastorageservice.model.ReconcileCheckpoint;
+import org.ithub.mediastorageservice.repository.MediaFileRepository;
+import org.ithub.mediastorageservice.repository.ReconcileCheckpointRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Сверка бакета с БД: слияние отсортированных листинга и keyset-порций ключей, пропуск недавно
+ * сверенных префиксов по чекпоинтам и исправление расхождений только за пределами grace-периодов
+ */
+class MediaReconcileServiceTest {
+	private static final LocalDate DAY = LocalDate.of(2024, 1, 2);
+	private static final String PREFIX = "2024/01/02/";
+
+	private MediaStorageService storageService;
+	private MediaFileRepository fileRepository;
+	private MediaFileService fileService;
+	private MediaVariantService variantService;
+	private ReconcileCheckpointRepository checkpointRepository;
+	private ReconcileConfig config;
+	private MediaReconcileService service;
+	// Ключи в БД по префиксам; findStorageKeysAfter отдает их порциями после lastKey
+	private final Map<String, List<String>> dbKeys = new TreeMap<>();
+
+	@BeforeEach
+	void setUp() {
+		storageService = mock(MediaStorageService.class);
+		fileRepository = mock(MediaFileRepository.class);
+		fileService = mock(MediaFileService.class);
+		variantService = mock(MediaVariantService.class);
+		checkpointRepository = mock(ReconcileCheckpointRepository.class);
+		config = new ReconcileConfig();
+		config.setMaxObjectsPerSecond(0);
+		config.setDbChunkSize(2);
+		service = new MediaReconcileService(storageService, fileRepository, fileService, variantService,
+				checkpointRepository, config);
+
+		when(fileRepository.findStorageKeysAfter(anyString(), anyString(), anyInt())).thenAnswer(invocation -> {
+			String pattern = invocation.getArgument(0);
+			String afterKey = invocation.getArgument(1);
+			int limit = invocation.getArgument(2);
+			return dbKeys.getOrDefault(pattern.substring(0, pattern.length() - 1), List.of()).stream()
+					.filter(key -> isAfterByCodePoint(key, afterKey))
+					.limit(limit)
+					.toList();
+		});
+	}
+
+	@Test
+	void sortedMergeFindsOrphansAndMissingRows() {
+		listing(PREFIX, object(PREFIX + "a.jpg", 0), dir(PREFIX + "thumbs/"), object(PREFIX + "b.jpg", 0),
+				object(PREFIX + "d.jpg", 0), object(PREFIX + "f.jpg", 0));
+		dbKeys.put(PREFIX, List.of(PREFIX + "b.jpg", PREFIX + "c.jpg", PREFIX + "d.jpg", PREFIX + "e.jpg"));
+
+		ReconcileReportDTO report = reconcile(DAY, DAY, false);
+
+		assertNull(report.getError());
+		assertEquals(4, report.getObjectsScanned());
+		assertEquals(List.of(PREFIX + "a.jpg", PREFIX + "f.jpg"), report.getOrphanSamples());
+		assertEquals(List.of(PREFIX + "c.jpg", PREFIX + "e.jpg"), report.getMissingSamples());
+		// Ключи читаются порциями по dbChunkSize, следующая - после последнего прочитанного
+		verify(fileRepository).findStorageKeysAfter(PREFIX + "%", "", 2);
+		verify(fileRepository).findStorageKeysAfter(PREFIX + "%", PREFIX + "c.jpg", 2);
+		verify(fileRepository).findStorageKeysAfter(PREFIX + "%", PREFIX + "e.jpg", 2);
+		// Без repair ничего не исправляется
+		verify(storageService, never()).deleteFiles(anyCollection());
+		verify(fileService, never()).deleteMediaFiles(anyCollection());
+	}
+
+	@Test
+	void keysOutsideBmpAreMergedInByteOrder() {
+		// В UTF-8 (порядок листинга S3 и collate "C") U+FFFD меньше U+1F600, а в UTF-16 - наоборот
+		String replacement = PREFIX + "�.jpg";
+		String emoji = PREFIX + "😀.jpg";
+		listing(PREFIX, object(replacement, 0), object(emoji, 0));
+		dbKeys.put(PREFIX, List.of(replacement, emoji));
+
+		ReconcileReportDTO report = reconcile(DAY, DAY, false);
+
+		assertEquals(2, report.getObjectsScanned());
+		assertEquals(0, report.getOrphanObjects());
+		assertEquals(0, report.getMissingObjects());
+	}
+
+	@Test
+	void checkpointedPrefixIsSkippedAndScannedPrefixIsCheckpointed() {
+		ReconcileCheckpoint recent = checkpoint(PREFIX, LocalDateTime.now().minusHours(1));
+		ReconcileCheckpoint stale = checkpoint("2024/01/03/", LocalDateTime.now().minusDays(2));
+		when(checkpointRepository.findById(PREFIX)).thenReturn(Optional.of(recent));
+		when(checkpointRepository.findById("2024/01/03/")).thenReturn(Optional.of(stale));
+		listing("2024/01/03/", object("2024/01/03/a.jpg", 0), object("2024/01/03/b.jpg", 0));
+		listing("2024/01/04/", object("2024/01/04/c.jpg", 0));
+		dbKeys.put("2024/01/03/", List.of("2024/01/03/a.jpg", "2024/01/03/b.jpg"));
+
+		ReconcileReportDTO report = reconcile(DAY, DAY.plusDays(2), false);
+
+		assertEquals(1, report.getPrefixesSkipped());
+		assertEquals(2, report.getPrefixesScanned());
+		verify(storageService, never()).listFiles(PREFIX);
+
+		ArgumentCaptor<ReconcileCheckpoint> saved = ArgumentCaptor.forClass(ReconcileCheckpoint.class);
+		verify(checkpointRepository, times(2)).save(saved.capture());
+		ReconcileCheckpoint rescanned = saved.getAllValues().get(0);
+		assertEquals("2024/01/03/", rescanned.getPrefix());
+		assertEquals(2, rescanned.getObjectCount());
+		assertEquals(0, rescanned.getOrphanCount());
+		assertTrue(rescanned.getScannedAt().isAfter(LocalDateTime.now().minusMinutes(1)));
+		ReconcileCheckpoint scanned = saved.getAllValues().get(1);
+		assertEquals("2024/01/04/", scanned.getPrefix());
+		assertEquals(1, scanned.getOrphanCount());
+	}
+
+	@Test
+	void repairRespectsOrphanGrace() {
+		config.setOrphanGrace(Duration.ofHours(24));
+		// Порция очищается после удаления, поэтому аргумент копируется в момент вызова
+		List<String> deleted = new ArrayList<>();
+		when(storageService.deleteFiles(anyCollection())).thenAnswer(invocation -> {
+			deleted.addAll(invocation.getArgument(0));
+			return Set.of();
+		});
+		listing(PREFIX, object(PREFIX + "old.jpg", 48), object(PREFIX + "fresh.jpg", 1));
+
+		ReconcileReportDTO report = reconcile(DAY, DAY, true);
+
+		// Оба объекта - сироты, но удаляется только тот, что старше orphanGrace
+		assertEquals(2, report.getOrphanObjects());
+		assertEquals(List.of(PREFIX + "old.jpg"), deleted);
+		assertEquals(1, report.getRepairedOrphans());
+	}
+
+	@Test
+	void repairRechecksMissingObjectsAndRespectsMissingGrace() {
+		config.setMissingGrace(Duration.ofHours(1));
+		listing(PREFIX);
+		dbKeys.put(PREFIX, List.of(PREFIX + "gone.jpg", PREFIX + "late.jpg"));
+		// Объект появился после чтения листинга - statObject его находит
+		when(storageService.findFile(PREFIX + "late.jpg")).thenReturn(Optional.of(mock(StatObjectResponse.class)));
+		when(variantService.deleteVariantRowsByStorageKeys(anyCollection(), any())).thenReturn(1);
+		when(fileRepository.findIdsByStorageKeys(anyCollection(), any())).thenReturn(List.of(7L));
+		when(fileService.deleteMediaFiles(anyCollection())).thenReturn(1);
+
+		LocalDateTime before = LocalDateTime.now().minusHours(1);
+		ReconcileReportDTO report = reconcile(DAY, DAY, true);
+		LocalDateTime after = LocalDateTime.now().minusHours(1);
+
+		assertEquals(2, report.getMissingObjects());
+		ArgumentCaptor<LocalDateTime> createdBefore = ArgumentCaptor.forClass(LocalDateTime.class);
+		verify(variantService).deleteVariantRowsByStorageKeys(eq(List.of(PREFIX + "gone.jpg")), createdBefore.capture());
+		verify(fileRepository).findIdsByStorageKeys(eq(List.of(PREFIX + "gone.jpg")), eq(createdBefore.getValue()));
+		// Строки моложе missingGrace отсекаются запросом по createdBefore
+		assertFalse(createdBefore.getValue().isBefore(before));
+		assertFalse(createdBefore.getValue().isAfter(after));
+		verify(fileService).deleteMediaFiles(List.of(7L));
+		assertEquals(2, report.getRepairedMissing());
+	}
+
+	@Test
+	void secondRunIsRejectedWhileFirstIsRunning() throws InterruptedException {
+		Object lock = new Object();
+		synchronized (lock) {
+			when(storageService.listFiles(PREFIX)).thenAnswer(invocation -> {
+				synchronized (lock) {
+					return List.<Item>of().iterator();
+				}
+			});
+			assertTrue(service.start(DAY, DAY, false));
+			assertFalse(service.start(DAY, DAY, false));
+		}
+		ReconcileReportDTO report = awaitFinished();
+		assertEquals(1, report.getPrefixesScanned());
+		assertTrue(service.start(DAY, DAY, false));
+		awaitFinished();
+	}
+
+	private ReconcileReportDTO reconcile(LocalDate from, LocalDate to, boolean repair) {
+		assertTrue(service.start(from, to, repair));
+		return awaitFinished();
+	}
+
+	private ReconcileReportDTO awaitFinished() {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		ReconcileReportDTO report = service.getLastReport();
+		while (report.isRunning()) {
+			if (System.nanoTime() > deadline) {
+				fail("Reconciliation did not finish");
+			}
+			try {
+				Thread.sleep(5);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				fail("Interrupted while waiting for reconciliation");
+			}
+		}
+		return report;
+	}
+
+	private void listing(String prefix, Item... items) {
+		when(storageService.listFiles(prefix)).thenAnswer(invocation -> new ArrayList<>(Arrays.asList(items)).iterator());
+	}
+
+	private static Item object(String key, int ageHours) {
+		Item item = mock(Item.class);
+		when(item.objectName()).thenReturn(key);
+		when(item.lastModified()).thenReturn(ZonedDateTime.now().minusHours(ageHours));
+		return item;
+	}
+
+	private static Item dir(String key) {
+		Item item = mock(Item.class);
+		when(item.objectName()).thenReturn(key);
+		when(item.isDir()).thenReturn(true);
+		return item;
+	}
+
+	private static ReconcileCheckpoint checkpoint(String prefix, LocalDateTime scannedAt) {
+		ReconcileCheckpoint checkpoint = new ReconcileCheckpoint();
+		checkpoint.setPrefix(prefix);
+		checkpoint.setScannedAt(scannedAt);
+		return checkpoint;
+	}
+
+	/**
+	 * Порядок collate "C": сравнение по кодовым точкам
+	 */
+	private static boolean isAfterByCodePoint(String key, String afterKey) {
+		return Arrays.compare(key.codePoints().toArray(), afterKey.codePoints().toArray()) > 0;
+	}
+}
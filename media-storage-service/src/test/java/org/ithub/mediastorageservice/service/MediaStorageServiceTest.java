@@ -0,0 +1,210 @@
+package org.ithub.mediastorageservice.service;
+
+import io.minio.MinioClient;
+import io.minio.messages.Part;
+import org.ithub.mediastorageservice.config.Minio.MultipartMinioClient;
+import org.ithub.mediastorageservice.config.UploadConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Загрузка потока неизвестной длины частями: нарезка на части, ограничение частей в памяти
+ * и отмена multipart-загрузки при ошибке
+ */
+class MediaStorageServiceTest {
+	private static final String BUCKET = "media";
+	private static final String UPLOAD_ID = "upload-1";
+	private static final int PART_SIZE = 10;
+
+	private MultipartMinioClient multipartClient;
+	private UploadConfig uploadConfig;
+	private ThreadPoolTaskExecutor partUploadExecutor;
+	private MediaStorageService service;
+	// Размеры отправленных частей в порядке отправки
+	private final List<Integer> partSizes = Collections.synchronizedList(new ArrayList<>());
+
+	@BeforeEach
+	void setUp() throws Exception {
+		multipartClient = mock(MultipartMinioClient.class);
+		uploadConfig = new UploadConfig();
+		uploadConfig.setPartSize(DataSize.ofBytes(PART_SIZE));
+		uploadConfig.setMaxInFlightParts(2);
+		partUploadExecutor = new ThreadPoolTaskExecutor();
+		partUploadExecutor.setCorePoolSize(8);
+		partUploadExecutor.initialize();
+
+		service = new MediaStorageService(mock(MinioClient.class), multipartClient, uploadConfig, partUploadExecutor,
+				mock(MediaObjectCache.class));
+		ReflectionTestUtils.setField(service, "bucketName", BUCKET);
+
+		when(multipartClient.createUpload(eq(BUCKET), anyString(), eq("video/mp4"))).thenReturn(UPLOAD_ID);
+		when(multipartClient.uploadPart(eq(BUCKET), anyString(), eq(UPLOAD_ID), anyInt(), any(byte[].class)))
+				.thenAnswer(invocation -> {
+					int number = invocation.getArgument(3);
+					byte[] data = invocation.getArgument(4);
+					partSizes.add(data.length);
+					return new Part(number, "etag-" + number);
+				});
+	}
+
+	@AfterEach
+	void tearDown() {
+		partUploadExecutor.shutdown();
+	}
+
+	@Test
+	void streamIsSplitIntoNumberedParts() throws Exception {
+		String key = service.uploadStream(new ByteArrayInputStream(new byte[25]), "video.mp4", "video/mp4");
+
+		assertEquals(List.of(5, 10, 10), partSizes.stream().sorted().toList());
+		ArgumentCaptor<Part[]> parts = ArgumentCaptor.forClass(Part[].class);
+		verify(multipartClient).completeUpload(eq(BUCKET), eq(key), eq(UPLOAD_ID), parts.capture());
+		assertEquals(List.of(1, 2, 3), Arrays.stream(parts.getValue()).map(Part::partNumber).toList());
+	}
+
+	@Test
+	void streamOfWholePartsEndsWithoutEmptyPart() throws Exception {
+		service.uploadStream(new ByteArrayInputStream(new byte[20]), "video.mp4", "video/mp4");
+
+		assertEquals(List.of(10, 10), partSizes);
+	}
+
+	@Test
+	void emptyStreamIsUploadedAsOneEmptyPart() throws Exception {
+		service.uploadStream(new ByteArrayInputStream(new byte[0]), "video.mp4", "video/mp4");
+
+		assertEquals(List.of(0), partSizes);
+	}
+
+	@Test
+	void readingStopsWhileMaxPartsAreInFlight() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger active = new AtomicInteger();
+		AtomicInteger maxActive = new AtomicInteger();
+		when(multipartClient.uploadPart(eq(BUCKET), anyString(), eq(UPLOAD_ID), anyInt(), any(byte[].class)))
+				.thenAnswer(invocation -> {
+					maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+					release.await(10, TimeUnit.SECONDS);
+					active.decrementAndGet();
+					int number = invocation.getArgument(3);
+					return new Part(number, "etag-" + number);
+				});
+		CountingInputStream source = new CountingInputStream(new ByteArrayInputStream(new byte[PART_SIZE * 5]));
+
+		ExecutorService caller = Executors.newSingleThreadExecutor();
+		try {
+			Future<String> upload = caller.submit(() -> service.uploadStream(source, "video.mp4", "video/mp4"));
+			awaitActive(active, 2);
+			// Третья часть не читается, пока обе отправляемые части держат место
+			Thread.sleep(200);
+			assertEquals(2L * PART_SIZE, source.count.get());
+
+			release.countDown();
+			upload.get(10, TimeUnit.SECONDS);
+		} finally {
+			caller.shutdownNow();
+		}
+		assertEquals(5L * PART_SIZE, source.count.get());
+		assertEquals(2, maxActive.get());
+	}
+
+	@Test
+	void failedPartAbortsUpload() throws Exception {
+		when(multipartClient.uploadPart(eq(BUCKET), anyString(), eq(UPLOAD_ID), eq(2), any(byte[].class)))
+				.thenThrow(new IOException("connection reset"));
+
+		RuntimeException thrown = assertThrows(RuntimeException.class,
+				() -> service.uploadStream(new ByteArrayInputStream(new byte[PART_SIZE * 5]), "video.mp4", "video/mp4"));
+
+		assertEquals("connection reset", thrown.getCause().getMessage());
+		verify(multipartClient).abortUpload(eq(BUCKET), anyString(), eq(UPLOAD_ID));
+		verify(multipartClient, never()).completeUpload(anyString(), anyString(), anyString(), any());
+	}
+
+	@Test
+	void failedSourceReadAbortsUpload() throws Exception {
+		InputStream broken = new InputStream() {
+			@Override
+			public int read() throws IOException {
+				throw new IOException("client disconnected");
+			}
+		};
+
+		assertThrows(RuntimeException.class, () -> service.uploadStream(broken, "video.mp4", "video/mp4"));
+
+		verify(multipartClient).abortUpload(eq(BUCKET), anyString(), eq(UPLOAD_ID));
+		verify(multipartClient, never()).completeUpload(anyString(), anyString(), anyString(), any());
+	}
+
+	private static void awaitActive(AtomicInteger active, int expected) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (active.get() < expected) {
+			if (System.nanoTime() > deadline) {
+				fail("Parts were not uploaded in parallel");
+			}
+			Thread.sleep(5);
+		}
+	}
+
+	/**
+	 * Поток, считающий прочитанные байты
+	 */
+	private static class CountingInputStream extends InputStream {
+		private final InputStream delegate;
+		private final AtomicLong count = new AtomicLong();
+
+		CountingInputStream(InputStream delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = delegate.read();
+			if (b >= 0) {
+				count.incrementAndGet();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int read = delegate.read(buffer, offset, length);
+			if (read > 0) {
+				count.addAndGet(read);
+			}
+			return read;
+		}
+	}
+}
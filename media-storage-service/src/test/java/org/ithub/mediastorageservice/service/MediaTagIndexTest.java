@@ -0,0 +1,154 @@
+package org.ithub.mediastorageservice.service;
+
+import org.ithub.mediastorageservice.enums.MediaType;
+import org.ithub.mediastorageservice.model.Tag;
+import org.ithub.mediastorageservice.repository.MediaFileRepository;
+import org.ithub.mediastorageservice.repository.MediaFileRepository.FileTypeRow;
+import org.ithub.mediastorageservice.repository.MediaFileTagRepository;
+import org.ithub.mediastorageservice.repository.MediaFileTagRepository.TagLinkRow;
+import org.ithub.mediastorageservice.repository.TagRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Поиск по битмап-индексу тегов: пересечение и объединение тегов, фильтр по типу, порядок страниц
+ * и изменения, пришедшие во время перестройки
+ */
+class MediaTagIndexTest {
+	private static final int CAT = 1;
+	private static final int DOG = 2;
+
+	private TagRepository tagRepository;
+	private MediaFileTagRepository mediaFileTagRepository;
+	private MediaFileRepository mediaFileRepository;
+	private MediaTagIndex index;
+
+	@BeforeEach
+	void setUp() {
+		tagRepository = mock(TagRepository.class);
+		mediaFileTagRepository = mock(MediaFileTagRepository.class);
+		mediaFileRepository = mock(MediaFileRepository.class);
+		index = new MediaTagIndex(tagRepository, mediaFileTagRepository, mediaFileRepository);
+
+		// Файлы 1, 3, 4 - изображения, 2 - видео; cat: 1, 2, 3; dog: 3, 4
+		when(mediaFileRepository.findTypeRowsAfter(anyLong(), any())).thenReturn(List.of(
+				file(1, MediaType.IMAGE), file(2, MediaType.VIDEO), file(3, MediaType.IMAGE), file(4, MediaType.IMAGE)));
+		when(tagRepository.findAll()).thenReturn(List.of(tag(CAT, "cat"), tag(DOG, "dog")));
+		when(mediaFileTagRepository.findLinkRowsAfter(anyLong(), anyInt(), any())).thenReturn(List.of(
+				link(1, CAT), link(2, CAT), link(3, CAT), link(3, DOG), link(4, DOG)));
+	}
+
+	@Test
+	void searchIsNotServedBeforeBuild() {
+		assertTrue(index.search(Set.of("cat"), false, null, PageRequest.of(0, 10)).isEmpty());
+	}
+
+	@Test
+	void matchAllIntersectsAndMatchAnyUnitesTags() {
+		index.rebuild();
+
+		MediaTagIndex.IndexPage all = index.search(Set.of("cat", "dog"), true, null, PageRequest.of(0, 10)).orElseThrow();
+		assertEquals(List.of(3L), all.ids());
+		assertEquals(1, all.total());
+
+		MediaTagIndex.IndexPage any = index.search(Set.of("cat", "dog"), false, null, PageRequest.of(0, 10)).orElseThrow();
+		assertEquals(List.of(4L, 3L, 2L, 1L), any.ids());
+
+		MediaTagIndex.IndexPage unknown = index.search(Set.of("cat", "bird"), true, null, PageRequest.of(0, 10)).orElseThrow();
+		assertEquals(0, unknown.total());
+	}
+
+	@Test
+	void typeFilterKeepsOnlyFilesOfThatType() {
+		index.rebuild();
+
+		MediaTagIndex.IndexPage images = index.search(Set.of("cat"), false, MediaType.IMAGE, PageRequest.of(0, 10)).orElseThrow();
+		assertEquals(List.of(3L, 1L), images.ids());
+		assertEquals(2, images.total());
+
+		MediaTagIndex.IndexPage audio = index.search(Set.of("cat"), false, MediaType.AUDIO, PageRequest.of(0, 10)).orElseThrow();
+		assertEquals(0, audio.total());
+	}
+
+	@Test
+	void pagesAreNewestFirstUnlessSortedAscending() {
+		index.rebuild();
+		Set<String> tags = Set.of("cat", "dog");
+
+		MediaTagIndex.IndexPage first = index.search(tags, false, null, PageRequest.of(0, 3)).orElseThrow();
+		MediaTagIndex.IndexPage second = index.search(tags, false, null, PageRequest.of(1, 3)).orElseThrow();
+		assertEquals(List.of(4L, 3L, 2L), first.ids());
+		assertEquals(List.of(1L), second.ids());
+		assertEquals(4, second.total());
+
+		MediaTagIndex.IndexPage ascending = index.search(tags, false, null,
+				PageRequest.of(0, 3, Sort.by(Sort.Direction.ASC, "createdAt"))).orElseThrow();
+		assertEquals(List.of(1L, 2L, 3L), ascending.ids());
+
+		assertTrue(index.search(tags, false, null, PageRequest.of(0, 3, Sort.by("originalFilename"))).isEmpty());
+	}
+
+	@Test
+	void changesDuringRebuildAreReplayedOntoNewBitmaps() {
+		// Пока перестройка читает связи, файл 5 загружается с тегом cat, а файл 1 удаляется
+		when(tagRepository.findAll()).thenAnswer(invocation -> {
+			index.addFile(5, MediaType.IMAGE);
+			index.addTags(5, Set.of("cat"));
+			index.removeFile(1);
+			return List.of(tag(CAT, "cat"), tag(DOG, "dog"));
+		});
+
+		index.rebuild();
+
+		MediaTagIndex.IndexPage cats = index.search(Set.of("cat"), false, MediaType.IMAGE, PageRequest.of(0, 10)).orElseThrow();
+		assertEquals(List.of(5L, 3L), cats.ids());
+	}
+
+	private static FileTypeRow file(long id, MediaType mediaType) {
+		return new FileTypeRow() {
+			@Override
+			public Long getId() {
+				return id;
+			}
+
+			@Override
+			public MediaType getMediaType() {
+				return mediaType;
+			}
+		};
+	}
+
+	private static TagLinkRow link(long mediaFileId, int tagId) {
+		return new TagLinkRow() {
+			@Override
+			public Long getMediaFileId() {
+				return mediaFileId;
+			}
+
+			@Override
+			public Integer getTagId() {
+				return tagId;
+			}
+		};
+	}
+
+	private static Tag tag(int id, String name) {
+		Tag tag = new Tag();
+		tag.setId(id);
+		tag.setName(name);
+		return tag;
+	}
+}
@@ -0,0 +1,187 @@
+package org.ithub.mediastorageservice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.ithub.mediastorageservice.config.VariantProfileConfig;
+import org.ithub.mediastorageservice.enums.MediaStatus;
+import org.ithub.mediastorageservice.enums.MediaType;
+import org.ithub.mediastorageservice.model.MediaFile;
+import org.ithub.mediastorageservice.model.MediaVariant;
+import org.ithub.mediastorageservice.repository.MediaFileRepository;
+import org.ithub.mediastorageservice.repository.MediaVariantRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Ленивая генерация вариантов: один расчет на параллельные запросы и гонка вставки между экземплярами
+ */
+class MediaVariantServiceTest {
+	private static final long MEDIA_ID = 42L;
+	private static final String VARIANT = "medium";
+	private static final int CALLERS = 8;
+
+	private MediaVariantRepository variantRepository;
+	private MediaStorageService storageService;
+	private ImageProcessingService imageProcessingService;
+	private MediaDeliveryService deliveryService;
+	private MediaFileRepository fileRepository;
+	private SimpleMeterRegistry meterRegistry;
+	private MediaVariantService service;
+	private ExecutorService callers;
+
+	@BeforeEach
+	void setUp() {
+		variantRepository = mock(MediaVariantRepository.class);
+		storageService = mock(MediaStorageService.class);
+		imageProcessingService = mock(ImageProcessingService.class);
+		deliveryService = mock(MediaDeliveryService.class);
+		fileRepository = mock(MediaFileRepository.class);
+		meterRegistry = new SimpleMeterRegistry();
+		service = new MediaVariantService(variantRepository, storageService, imageProcessingService,
+				deliveryService, new VariantProfileConfig(), fileRepository, meterRegistry);
+		callers = Executors.newFixedThreadPool(CALLERS);
+
+		MediaFile mediaFile = new MediaFile();
+		mediaFile.setId(MEDIA_ID);
+		mediaFile.setStorageKey("2024/01/01/original.jpg");
+		mediaFile.setMediaType(MediaType.IMAGE);
+		mediaFile.setStatus(MediaStatus.READY);
+		when(variantRepository.findServable(MEDIA_ID, VARIANT)).thenReturn(Optional.empty());
+		when(fileRepository.findByIdAndStatusNot(MEDIA_ID, MediaStatus.DELETED)).thenReturn(Optional.of(mediaFile));
+		when(storageService.getFile(anyString())).thenReturn(new byte[]{1, 2, 3});
+	}
+
+	@AfterEach
+	void tearDown() {
+		callers.shutdownNow();
+	}
+
+	@Test
+	void concurrentRequestsShareOneGeneration() throws Exception {
+		MediaVariant generated = variant("variants/medium/original.jpg");
+		AtomicInteger computations = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+		when(imageProcessingService.createVariants(any(MediaFile.class), any(byte[].class), anyList()))
+				.thenAnswer(invocation -> {
+					computations.incrementAndGet();
+					release.await(10, TimeUnit.SECONDS);
+					return List.of(generated);
+				});
+
+		List<Future<?>> requests = startRequests();
+		awaitCoalesced(CALLERS - 1);
+		release.countDown();
+		for (Future<?> request : requests) {
+			request.get(10, TimeUnit.SECONDS);
+		}
+
+		assertEquals(1, computations.get());
+		assertEquals(1.0, meterRegistry.counter("media.variant.materialize", "result", "computed").count());
+		verify(deliveryService, times(CALLERS)).deliver(eq(generated.getStorageKey()), isNull(), eq("image/jpeg"),
+				eq(MediaType.IMAGE), any(), anyBoolean(), any(HttpHeaders.class));
+	}
+
+	@Test
+	void generationErrorIsPassedToEveryWaiter() throws Exception {
+		RuntimeException failure = new IllegalStateException("decode failed");
+		CountDownLatch release = new CountDownLatch(1);
+		when(imageProcessingService.createVariants(any(MediaFile.class), any(byte[].class), anyList()))
+				.thenAnswer(invocation -> {
+					release.await(10, TimeUnit.SECONDS);
+					throw failure;
+				});
+
+		List<Future<?>> requests = startRequests();
+		awaitCoalesced(CALLERS - 1);
+		release.countDown();
+		for (Future<?> request : requests) {
+			ExecutionException thrown = assertThrows(ExecutionException.class, () -> request.get(10, TimeUnit.SECONDS));
+			assertSame(failure, thrown.getCause());
+		}
+		verify(imageProcessingService, times(1)).createVariants(any(MediaFile.class), any(byte[].class), anyList());
+	}
+
+	@Test
+	void failedGenerationIsNotCachedForLaterRequests() {
+		MediaVariant generated = variant("variants/medium/original.jpg");
+		when(imageProcessingService.createVariants(any(MediaFile.class), any(byte[].class), anyList()))
+				.thenThrow(new IllegalStateException("storage unavailable"))
+				.thenReturn(List.of(generated));
+
+		assertThrows(IllegalStateException.class, () -> service.getVariantContent(MEDIA_ID, VARIANT, new HttpHeaders()));
+		service.getVariantContent(MEDIA_ID, VARIANT, new HttpHeaders());
+
+		verify(imageProcessingService, times(2)).createVariants(any(MediaFile.class), any(byte[].class), anyList());
+	}
+
+	@Test
+	void duplicateInsertFallsBackToSavedVariant() {
+		MediaVariant winner = variant("variants/medium/winner.jpg");
+		when(imageProcessingService.createVariants(any(MediaFile.class), any(byte[].class), anyList()))
+				.thenThrow(new DataIntegrityViolationException("uk_variant_media_name"));
+		when(variantRepository.findByMediaFileIdAndVariantName(MEDIA_ID, VARIANT)).thenReturn(Optional.of(winner));
+
+		service.getVariantContent(MEDIA_ID, VARIANT, new HttpHeaders());
+
+		verify(deliveryService).deliver(eq(winner.getStorageKey()), isNull(), eq("image/jpeg"),
+				eq(MediaType.IMAGE), any(), anyBoolean(), any(HttpHeaders.class));
+	}
+
+	private List<Future<?>> startRequests() {
+		List<Future<?>> requests = new ArrayList<>();
+		for (int i = 0; i < CALLERS; i++) {
+			requests.add(callers.submit(() -> service.getVariantContent(MEDIA_ID, VARIANT, new HttpHeaders())));
+		}
+		return requests;
+	}
+
+	/**
+	 * Ожидание, пока все остальные запросы присоединятся к выполняющейся генерации
+	 */
+	private void awaitCoalesced(int expected) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (meterRegistry.counter("media.variant.materialize", "result", "coalesced").count() < expected) {
+			if (System.nanoTime() > deadline) {
+				fail("Requests were not coalesced into one generation");
+			}
+			Thread.sleep(5);
+		}
+	}
+
+	private static MediaVariant variant(String storageKey) {
+		MediaVariant variant = new MediaVariant();
+		variant.setVariantName(VARIANT);
+		variant.setStorageKey(storageKey);
+		variant.setMimeType("image/jpeg");
+		variant.setSize(1024L);
+		return variant;
+	}
+}
@@ -0,0 +1,100 @@
+package org.ithub.mediastorageservice.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Уменьшение без Graphics2D: точный размер результата, отбрасывание нечетного края при уменьшении вдвое,
+ * сведение прозрачности к черному фону и сохранение однотонного цвета
+ */
+class ImageResamplerTest {
+
+	@Test
+	void resultHasExactTargetDimensions() {
+		BufferedImage source = filled(1000, 750, BufferedImage.TYPE_INT_RGB, 0x336699);
+
+		BufferedImage result = ImageResampler.downscale(source, 123, 77);
+
+		assertEquals(123, result.getWidth());
+		assertEquals(77, result.getHeight());
+		assertEquals(BufferedImage.TYPE_INT_RGB, result.getType());
+	}
+
+	@Test
+	void upscalingIsRejected() {
+		BufferedImage source = filled(10, 10, BufferedImage.TYPE_INT_RGB, 0);
+
+		assertThrows(IllegalArgumentException.class, () -> ImageResampler.downscale(source, 11, 5));
+	}
+
+	@Test
+	void halvingOddSizeDropsTheLastRowAndColumn() {
+		// 5x3: два блока 2x2 разного цвета, последний столбец и строка белые
+		BufferedImage source = filled(5, 3, BufferedImage.TYPE_INT_RGB, 0xFFFFFF);
+		fill(source, 0, 0, 2, 2, 0x102030);
+		fill(source, 2, 0, 2, 2, 0x405060);
+
+		BufferedImage result = ImageResampler.downscale(source, 2, 1);
+
+		assertEquals(0x102030, rgb(result, 0, 0));
+		assertEquals(0x405060, rgb(result, 1, 0));
+	}
+
+	@Test
+	void alphaIsPremultipliedOntoBlack() {
+		BufferedImage translucent = filled(4, 4, BufferedImage.TYPE_INT_ARGB, 0x80FF0000);
+		assertEquals(0x800000, rgb(ImageResampler.downscale(translucent, 2, 2), 1, 1));
+
+		// В каждом блоке 2x2 два непрозрачных белых пикселя и два прозрачных белых
+		BufferedImage checker = filled(4, 4, BufferedImage.TYPE_INT_ARGB, 0x00FFFFFF);
+		for (int y = 0; y < 4; y++) {
+			for (int x = (y % 2); x < 4; x += 2) {
+				checker.setRGB(x, y, 0xFFFFFFFF);
+			}
+		}
+		BufferedImage result = ImageResampler.downscale(checker, 2, 2);
+		for (int y = 0; y < 2; y++) {
+			for (int x = 0; x < 2; x++) {
+				assertEquals(0x808080, rgb(result, x, y));
+			}
+		}
+	}
+
+	@Test
+	void uniformColourSurvivesHalvingAndAreaAveraging() {
+		// 640x480 -> 160x120 вдвое, затем 160 -> 100 и 120 -> 75 по площади
+		int colour = 37 << 16 | 142 << 8 | 201;
+		for (int type : new int[]{BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB}) {
+			BufferedImage result = ImageResampler.downscale(filled(640, 480, type, 0xFF000000 | colour), 100, 75);
+
+			for (int y = 0; y < result.getHeight(); y++) {
+				for (int x = 0; x < result.getWidth(); x++) {
+					assertEquals(colour, rgb(result, x, y), "type " + type + " at " + x + "," + y);
+				}
+			}
+		}
+	}
+
+	private static BufferedImage filled(int width, int height, int type, int argb) {
+		BufferedImage image = new BufferedImage(width, height, type);
+		fill(image, 0, 0, width, height, argb);
+		return image;
+	}
+
+	private static void fill(BufferedImage image, int x, int y, int width, int height, int argb) {
+		int[] row = new int[width];
+		Arrays.fill(row, argb);
+		for (int j = y; j < y + height; j++) {
+			image.setRGB(x, j, width, 1, row, 0, width);
+		}
+	}
+
+	private static int rgb(BufferedImage image, int x, int y) {
+		return image.getRGB(x, y) & 0xFFFFFF;
+	}
+}
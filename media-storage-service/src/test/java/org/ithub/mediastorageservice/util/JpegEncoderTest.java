@@ -0,0 +1,242 @@
+package org.ithub.mediastorageservice.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.spi.IIORegistry;
+import javax.imageio.spi.ImageWriterSpi;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Кодирование JPEG: результат без подгонки, двоичный поиск качества под бюджет, нижняя граница
+ * качества и пул ImageWriter (writer-ы считаются через обертку, зарегистрированную перед штатной)
+ */
+class JpegEncoderTest {
+	private static final float QUALITY = 0.9f;
+	private static final float MIN_QUALITY = 0.3f;
+	private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+
+	private static final AtomicInteger created = new AtomicInteger();
+	private static final AtomicInteger disposed = new AtomicInteger();
+	// Если задан, каждый writer ждет на нем внутри write - так все writer-ы оказываются заняты одновременно
+	private static volatile CyclicBarrier writeBarrier;
+
+	private ImageWriterSpi jpegSpi;
+	private CountingWriterSpi countingSpi;
+	private JpegEncoder encoder;
+	private BufferedImage image;
+
+	@BeforeEach
+	void setUp() {
+		jpegSpi = ImageIO.getImageWritersByFormatName("jpeg").next().getOriginatingProvider();
+		countingSpi = new CountingWriterSpi(jpegSpi);
+		IIORegistry registry = IIORegistry.getDefaultInstance();
+		registry.registerServiceProvider(countingSpi, ImageWriterSpi.class);
+		registry.setOrdering(ImageWriterSpi.class, countingSpi, jpegSpi);
+		created.set(0);
+		disposed.set(0);
+		writeBarrier = null;
+
+		encoder = new JpegEncoder();
+		image = noise(256, 256);
+	}
+
+	@AfterEach
+	void tearDown() {
+		IIORegistry.getDefaultInstance().deregisterServiceProvider(countingSpi, ImageWriterSpi.class);
+	}
+
+	@Test
+	void imageThatFitsIsEncodedOnceAtRequestedQuality() throws IOException {
+		byte[] unlimited = encoder.encode(image, QUALITY, false, 0);
+
+		byte[] budgeted = encoder.encode(image, QUALITY, false, unlimited.length);
+
+		assertArrayEquals(unlimited, budgeted);
+	}
+
+	@Test
+	void qualityIsLoweredUntilResultFitsBudget() throws IOException {
+		int full = encoder.encode(image, QUALITY, false, 0).length;
+		int floor = encoder.encode(image, MIN_QUALITY, false, 0).length;
+		long budget = (full + floor) / 2;
+
+		byte[] result = encoder.encode(image, QUALITY, false, budget);
+
+		assertTrue(result.length <= budget, "result " + result.length + " exceeds budget " + budget);
+		// Найдено качество выше нижней границы, а не просто минимальное
+		assertTrue(result.length > floor, "result " + result.length + " fell back to the floor " + floor);
+	}
+
+	@Test
+	void floorQualityIsReturnedWhenNothingFits() throws IOException {
+		byte[] floor = encoder.encode(image, MIN_QUALITY, true, 0);
+
+		byte[] result = encoder.encode(image, QUALITY, true, 100);
+
+		assertArrayEquals(floor, result);
+		assertTrue(result.length > 100);
+	}
+
+	@Test
+	void writersAreReusedAndSurplusIsDisposed() throws Exception {
+		// Последовательные вызовы, в том числе все шаги подбора качества, обходятся одним writer
+		encoder.encode(image, QUALITY, false, 0);
+		encoder.encode(image, QUALITY, false, 100);
+		assertEquals(1, created.get());
+		assertEquals(0, disposed.get());
+
+		// Одновременно занятых writer-ов больше, чем мест в пуле: лишние освобождаются при возврате
+		int parallel = POOL_SIZE + 2;
+		writeBarrier = new CyclicBarrier(parallel);
+		ExecutorService callers = Executors.newFixedThreadPool(parallel);
+		try {
+			List<Future<byte[]>> results = new ArrayList<>();
+			for (int i = 0; i < parallel; i++) {
+				results.add(callers.submit(() -> encoder.encode(image, QUALITY, false, 0)));
+			}
+			for (Future<byte[]> result : results) {
+				result.get(30, TimeUnit.SECONDS);
+			}
+		} finally {
+			callers.shutdownNow();
+		}
+
+		assertEquals(parallel, created.get());
+		assertEquals(parallel - POOL_SIZE, disposed.get());
+	}
+
+	private static BufferedImage noise(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Random random = new Random(42);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				image.setRGB(x, y, random.nextInt(0x1000000));
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * Провайдер штатного JPEG writer-а, который считает созданные writer-ы
+	 */
+	private static class CountingWriterSpi extends ImageWriterSpi {
+		private final ImageWriterSpi delegate;
+
+		CountingWriterSpi(ImageWriterSpi delegate) {
+			this.delegate = delegate;
+			this.vendorName = delegate.getVendorName();
+			this.version = delegate.getVersion();
+			this.names = delegate.getFormatNames();
+			this.suffixes = delegate.getFileSuffixes();
+			this.MIMETypes = delegate.getMIMETypes();
+			this.outputTypes = delegate.getOutputTypes();
+		}
+
+		@Override
+		public boolean canEncodeImage(ImageTypeSpecifier type) {
+			return delegate.canEncodeImage(type);
+		}
+
+		@Override
+		public ImageWriter createWriterInstance(Object extension) throws IOException {
+			created.incrementAndGet();
+			return new CountingWriter(this, delegate.createWriterInstance(extension));
+		}
+
+		@Override
+		public String getDescription(Locale locale) {
+			return "Counting " + delegate.getDescription(locale);
+		}
+	}
+
+	/**
+	 * Writer, передающий работу штатному и считающий вызовы dispose
+	 */
+	private static class CountingWriter extends ImageWriter {
+		private final ImageWriter delegate;
+
+		CountingWriter(ImageWriterSpi provider, ImageWriter delegate) {
+			super(provider);
+			this.delegate = delegate;
+		}
+
+		@Override
+		public ImageWriteParam getDefaultWriteParam() {
+			return delegate.getDefaultWriteParam();
+		}
+
+		@Override
+		public void setOutput(Object output) {
+			super.setOutput(output);
+			delegate.setOutput(output);
+		}
+
+		@Override
+		public IIOMetadata getDefaultStreamMetadata(ImageWriteParam param) {
+			return delegate.getDefaultStreamMetadata(param);
+		}
+
+		@Override
+		public IIOMetadata getDefaultImageMetadata(ImageTypeSpecifier imageType, ImageWriteParam param) {
+			return delegate.getDefaultImageMetadata(imageType, param);
+		}
+
+		@Override
+		public IIOMetadata convertStreamMetadata(IIOMetadata inData, ImageWriteParam param) {
+			return delegate.convertStreamMetadata(inData, param);
+		}
+
+		@Override
+		public IIOMetadata convertImageMetadata(IIOMetadata inData, ImageTypeSpecifier imageType, ImageWriteParam param) {
+			return delegate.convertImageMetadata(inData, imageType, param);
+		}
+
+		@Override
+		public void write(IIOMetadata streamMetadata, IIOImage image, ImageWriteParam param) throws IOException {
+			CyclicBarrier barrier = writeBarrier;
+			if (barrier != null) {
+				try {
+					barrier.await(30, TimeUnit.SECONDS);
+				} catch (Exception e) {
+					throw new IOException("Writers were not checked out together", e);
+				}
+			}
+			delegate.write(streamMetadata, image, param);
+		}
+
+		@Override
+		public void reset() {
+			super.reset();
+			delegate.reset();
+		}
+
+		@Override
+		public void dispose() {
+			disposed.incrementAndGet();
+			delegate.dispose();
+		}
+	}
+}